@@ -0,0 +1,177 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+
+import openjsip.CircuitBreaker;
+import openjsip.RemoteServiceStub;
+import openjsip.VirtualThreadExecutor;
+import openjsip.proxy.RequestLanes;
+import openjsip.remote.RemoteServiceInterface;
+
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Measures how many requests blocked on a slow remote service are served per second by request lanes
+ * and by virtual threads. Remote service is exported in the same JVM and answers after fixed delay.
+ * Stub and executors are configured with default settings, the same way proxy configures them,
+ * unless properties are given with -D ( e.g. -Dbench.rmi.timeout=0 ).
+ * <p>
+ * Usage: RemoteCallBenchmark lanes|virtual &lt;requests&gt; [delay ms]
+ */
+public class RemoteCallBenchmark
+{
+    /**
+     * Remote service answering after fixed delay
+     */
+    public static class SlowService extends UnicastRemoteObject implements RemoteServiceInterface
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long delay;
+
+        public SlowService(long delay) throws RemoteException
+        {
+            this.delay = delay;
+        }
+
+        public String execCmd(String cmd, String[] parameters)
+        {
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            return cmd;
+        }
+
+        public boolean isAlive()
+        {
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: RemoteCallBenchmark lanes|virtual <requests> [delay ms]");
+            System.exit(1);
+        }
+
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.WARN);
+
+        boolean virtual = args[0].equalsIgnoreCase("virtual");
+        int requests = Integer.parseInt(args[1]);
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        Properties props = new Properties();
+        props.setProperty("bench.rmi.port", "1199");
+        props.setProperty("bench.rmi.objectname", "SlowService");
+        props.setProperty("bench.rmi.check.interval", "0");
+        props.setProperty("bench.lanes.enabled", "yes");
+        props.setProperty("bench.virtual.threads.enabled", "yes");
+        props.putAll(System.getProperties());
+
+        Registry registry = LocateRegistry.createRegistry(Integer.parseInt(props.getProperty("bench.rmi.port")));
+        SlowService service = new SlowService(delay);
+        registry.rebind("SlowService", service);
+
+        RequestLanes lanes = null;
+        VirtualThreadExecutor virtualThreads = null;
+
+        if (virtual)
+        {
+            virtualThreads = VirtualThreadExecutor.createFromProperties(props, "bench.virtual.threads", "Request");
+            if (virtualThreads == null)
+            {
+                System.err.println("Virtual threads are not supported by this JVM.");
+                System.exit(1);
+            }
+        }
+        else
+            lanes = RequestLanes.createFromProperties(props, "bench.lanes");
+
+        RemoteServiceStub<RemoteServiceInterface> stub = RemoteServiceStub.createFromProperties(RemoteServiceInterface.class, props, "bench", "SlowService", virtual);
+        final RemoteServiceInterface remote = stub.get();
+        remote.execCmd("warmup", null);
+
+        final CountDownLatch done = new CountDownLatch(requests);
+        final AtomicInteger failed = new AtomicInteger();
+        int refused = 0;
+
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    remote.execCmd("request", null);
+                }
+                catch (Exception ex)
+                {
+                    failed.incrementAndGet();
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < requests; i++)
+        {
+            boolean accepted = virtual ? virtualThreads.execute(task) : lanes.execute(RequestLanes.INVITE_LANE, "call-" + i, task);
+            if (!accepted)
+            {
+                refused++;
+                done.countDown();
+            }
+        }
+
+        done.await();
+        long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+        int served = requests - refused - failed.get();
+
+        CircuitBreaker circuitBreaker = stub.getCircuitBreaker();
+        String breakerState = circuitBreaker == null ? "none" : circuitBreaker.getState() == CircuitBreaker.CLOSED ? "closed" : "open";
+
+        System.out.println((virtual ? "virtual" : "lanes") + ": requests " + requests + ", delay " + delay + " ms, time " + elapsed + " ms, served " + served +
+                           " ( " + (served * 1000L / elapsed) + " requests/s ), failed " + failed.get() + ", refused " + refused +
+                           ", circuit breaker " + breakerState);
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,463 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+import javax.sip.header.UserAgentHeader;
+import javax.sip.message.Request;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Access policy deciding by source address and User-Agent whether request is allowed, denied or trusted.
+ * <p>
+ * Address rules are kept in path-compressed binary prefix tries, one for IPv4 and one for IPv6, so that
+ * lookup takes time proportional to address length regardless of the number of rules. The most specific
+ * matching prefix wins. User-Agent rules deny requests whose User-Agent contains one of given signatures,
+ * unless source is trusted.
+ * <p>
+ * Policy is immutable. It is reloaded by building a new policy and replacing the reference to the old one.
+ */
+public class AccessPolicy
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(AccessPolicy.class);
+
+    /**
+     * Request is processed normally
+     */
+    public static final int ALLOW = 0;
+
+    /**
+     * Request is dropped
+     */
+    public static final int DENY = 1;
+
+    /**
+     * Request is processed without authentication
+     */
+    public static final int TRUST = 2;
+
+    /**
+     * Action names used in configuration, indexed by action
+     */
+    public static final String[] ACTION_NAMES = { "allow", "deny", "trust" };
+
+    /**
+     * No rule at the node
+     */
+    private static final int NONE = -1;
+
+    /**
+     * Root of IPv4 trie
+     */
+    private final Node ipv4Root = new Node(new byte[4], 0, NONE);
+
+    /**
+     * Root of IPv6 trie
+     */
+    private final Node ipv6Root = new Node(new byte[16], 0, NONE);
+
+    /**
+     * Action for sources matching no rule
+     */
+    private final int defaultAction;
+
+    /**
+     * Lower case User-Agent signatures of denied clients
+     */
+    private final String[] deniedUserAgents;
+
+    /**
+     * The number of address rules
+     */
+    private int numRules;
+
+    /**
+     * Configuration properties, used to reload policy
+     */
+    private final Properties props;
+
+    /**
+     * Properties name prefix
+     */
+    private final String prefix;
+
+    /**
+     * Creates policy configured by properties <i>prefix</i>.allow, <i>prefix</i>.deny and <i>prefix</i>.trust
+     * ( comma separated IPv4 or IPv6 addresses with optional /prefix length ), <i>prefix</i>.default ( allow by default )
+     * and <i>prefix</i>.deny.user.agent ( comma separated User-Agent signatures ). If <i>prefix</i>.file is set,
+     * rules are read from that file instead, which makes policy reloadable.
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return Policy or null if no rules are configured
+     * @throws IOException If policy file cannot be read
+     */
+    public static AccessPolicy createFromProperties(Properties props, String prefix) throws IOException
+    {
+        Properties rules = props;
+
+        String file = props.getProperty(prefix + ".file");
+        if (file != null)
+        {
+            rules = new Properties();
+            FileInputStream in = new FileInputStream(file.trim());
+
+            try
+            {
+                rules.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        if (file == null && rules.getProperty(prefix + ".allow") == null && rules.getProperty(prefix + ".deny") == null &&
+            rules.getProperty(prefix + ".trust") == null && rules.getProperty(prefix + ".deny.user.agent") == null)
+            return null;
+
+        AccessPolicy policy = new AccessPolicy(rules, props, prefix);
+
+        if (log.isInfoEnabled())
+            log.info("Access policy loaded" + (file != null ? " from " + file.trim() : "") + ": " + policy);
+
+        return policy;
+    }
+
+    /**
+     * Builds policy.
+     * @param rules Properties containing rules
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     */
+    private AccessPolicy(Properties rules, Properties props, String prefix)
+    {
+        this.props = props;
+        this.prefix = prefix;
+
+        int action = ALLOW;
+        String defaultName = rules.getProperty(prefix + ".default", "allow").trim();
+        for (int i = 0; i < ACTION_NAMES.length; i++)
+            if (ACTION_NAMES[i].equalsIgnoreCase(defaultName))
+                action = i;
+        defaultAction = action;
+
+        // More specific prefixes override less specific ones, so the order of lists only matters for equal prefixes
+        for (int i = 0; i < ACTION_NAMES.length; i++)
+        {
+            String list = rules.getProperty(prefix + "." + ACTION_NAMES[i]);
+            if (list == null)
+                continue;
+
+            StringTokenizer st = new StringTokenizer(list, ", \t");
+            while (st.hasMoreTokens())
+            {
+                String rule = st.nextToken();
+
+                try
+                {
+                    addRule(rule, i);
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    log.error("Invalid access rule " + rule + ": " + ex.getMessage());
+                }
+            }
+        }
+
+        Vector<String> signatures = new Vector<String>();
+        String list = rules.getProperty(prefix + ".deny.user.agent");
+        if (list != null)
+        {
+            StringTokenizer st = new StringTokenizer(list, ",");
+            while (st.hasMoreTokens())
+            {
+                String signature = st.nextToken().trim().toLowerCase();
+                if (signature.length() > 0)
+                    signatures.add(signature);
+            }
+        }
+        deniedUserAgents = signatures.toArray(new String[signatures.size()]);
+    }
+
+    /**
+     * Builds new policy from the same configuration. Current policy is not changed,
+     * so that callers may replace the reference atomically.
+     * @return New policy, or null if no rules are configured any more
+     * @throws IOException If policy file cannot be read
+     */
+    public AccessPolicy reload() throws IOException
+    {
+        return createFromProperties(props, prefix);
+    }
+
+    /**
+     * Evaluates request by its transport source address. Request with unknown source is never trusted.
+     * @param request Request
+     * @return ALLOW, DENY or TRUST
+     */
+    public int evaluate(Request request)
+    {
+        String address = SipUtils.getSourceAddress(request);
+        int action = evaluate(address);
+
+        if (action == TRUST && address == null)
+            action = ALLOW;
+
+        if (action != TRUST && deniedUserAgents.length > 0)
+        {
+            UserAgentHeader userAgentHeader = (UserAgentHeader) request.getHeader(UserAgentHeader.NAME);
+            if (userAgentHeader != null)
+            {
+                String userAgent = userAgentHeader.toString().toLowerCase();
+                for (String signature : deniedUserAgents)
+                    if (userAgent.indexOf(signature) != -1)
+                        return DENY;
+            }
+        }
+
+        return action;
+    }
+
+    /**
+     * Evaluates source address. Host names match no rule, they are never resolved.
+     * @param address IPv4 or IPv6 address
+     * @return ALLOW, DENY or TRUST
+     */
+    public int evaluate(String address)
+    {
+        byte[] key = address != null ? parseAddress(address) : null;
+        if (key == null)
+            return defaultAction;
+
+        Node node = key.length == 4 ? ipv4Root : ipv6Root;
+        int action = node.action;
+        int checked = 0;
+
+        while (node != null && matches(node.key, key, checked, node.length))
+        {
+            if (node.action != NONE)
+                action = node.action;
+
+            if (node.length == key.length * 8)
+                break;
+
+            checked = node.length;
+            node = node.children[bit(key, node.length)];
+        }
+
+        return action != NONE ? action : defaultAction;
+    }
+
+    /**
+     * Adds address rule.
+     * @param rule Address with optional /prefix length
+     * @param action Action
+     */
+    private void addRule(String rule, int action)
+    {
+        int slash = rule.indexOf('/');
+        byte[] key = parseAddress(slash != -1 ? rule.substring(0, slash) : rule);
+        if (key == null)
+            throw new IllegalArgumentException("not an IP address");
+
+        int length = key.length * 8;
+        if (slash != -1)
+        {
+            try
+            {
+                length = Integer.parseInt(rule.substring(slash + 1));
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new IllegalArgumentException("invalid prefix length");
+            }
+
+            if (length < 0 || length > key.length * 8)
+                throw new IllegalArgumentException("invalid prefix length");
+        }
+
+        // Clear host bits, so that nodes can be compared by whole bytes
+        for (int i = length; i < key.length * 8; i++)
+            key[i >> 3] &= ~(0x80 >> (i & 7));
+
+        insert(key.length == 4 ? ipv4Root : ipv6Root, key, length, action);
+        numRules++;
+    }
+
+    /**
+     * Inserts prefix to the trie, splitting nodes where prefixes diverge.
+     */
+    private static void insert(Node node, byte[] key, int length, int action)
+    {
+        while (true)
+        {
+            if (node.length == length)
+            {
+                node.action = action;
+                return;
+            }
+
+            int b = bit(key, node.length);
+            Node child = node.children[b];
+
+            if (child == null)
+            {
+                node.children[b] = new Node(key, length, action);
+                return;
+            }
+
+            int common = commonPrefix(child.key, key, node.length, Math.min(child.length, length));
+
+            if (common == child.length)
+            {
+                node = child;
+                continue;
+            }
+
+            Node split = new Node(key, common, NONE);
+            node.children[b] = split;
+            split.children[bit(child.key, common)] = child;
+
+            if (common == length)
+                split.action = action;
+            else
+                split.children[bit(key, common)] = new Node(key, length, action);
+
+            return;
+        }
+    }
+
+    /**
+     * @return Value of bit <i>index</i> of <i>key</i>
+     */
+    private static int bit(byte[] key, int index)
+    {
+        return (key[index >> 3] >> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * @return Length of common prefix of <i>a</i> and <i>b</i>, not greater than <i>to</i>, given that bits before <i>from</i> are equal
+     */
+    private static int commonPrefix(byte[] a, byte[] b, int from, int to)
+    {
+        int i = from;
+        while (i < to && bit(a, i) == bit(b, i))
+            i++;
+        return i;
+    }
+
+    /**
+     * @return true if bits <i>from</i> ( inclusive ) to <i>to</i> ( exclusive ) of <i>a</i> and <i>b</i> are equal
+     */
+    private static boolean matches(byte[] a, byte[] b, int from, int to)
+    {
+        return commonPrefix(a, b, from, to) == to;
+    }
+
+    /**
+     * Parses IP address literal without resolving host names.
+     * @param address IPv4 or IPv6 address, IPv6 may be enclosed in brackets
+     * @return Address bytes or null if <i>address</i> is not an IP address
+     */
+    private static byte[] parseAddress(String address)
+    {
+        if (address.startsWith("[") && address.endsWith("]"))
+            address = address.substring(1, address.length() - 1);
+
+        if (address.indexOf(':') != -1)
+        {
+            try
+            {
+                // Literals with colons are never looked up in DNS
+                return InetAddress.getByName(address).getAddress();
+            }
+            catch (UnknownHostException ex)
+            {
+                return null;
+            }
+        }
+
+        byte[] key = new byte[4];
+        int octet = 0;
+        int value = -1;
+
+        for (int i = 0; i < address.length(); i++)
+        {
+            char c = address.charAt(i);
+
+            if (c >= '0' && c <= '9')
+            {
+                value = (value == -1 ? 0 : value * 10) + (c - '0');
+                if (value > 255)
+                    return null;
+            }
+            else if (c == '.' && value != -1 && octet < 3)
+            {
+                key[octet++] = (byte) value;
+                value = -1;
+            }
+            else
+                return null;
+        }
+
+        if (value == -1 || octet != 3)
+            return null;
+
+        key[3] = (byte) value;
+        return key;
+    }
+
+    public String toString()
+    {
+        return numRules + " address rules, " + deniedUserAgents.length + " User-Agent signatures, default " + ACTION_NAMES[defaultAction];
+    }
+
+    /**
+     * Trie node. Key bits beyond <i>length</i> are zero.
+     */
+    private static class Node
+    {
+        private final byte[] key;
+        private final int length;
+        private int action;
+        private final Node[] children = new Node[2];
+
+        private Node(byte[] key, int length, int action)
+        {
+            this.key = key.clone();
+            this.length = length;
+            this.action = action;
+
+            for (int i = length; i < this.key.length * 8; i++)
+                this.key[i >> 3] &= ~(0x80 >> (i & 7));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip;
+
+/**
+ * Thrown when remote call is not made because local resources for calls are exhausted
+ * ( all call threads are busy ). Remote service itself may be healthy, so circuit breaker
+ * does not count such calls as failures.
+ */
+public class CallRejectedException extends ServiceUnavailableException
+{
+    private static final long serialVersionUID = 1L;
+
+    public CallRejectedException(String message, int retryAfter)
+    {
+        super(message, retryAfter);
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker guarding calls to remote service.
+ * After <i>failureThreshold</i> consecutive failures the circuit opens and calls are rejected
+ * without contacting the service. When <i>openTime</i> has passed, a single call is let through
+ * ( half-open state ): its success closes the circuit, its failure opens it again.
+ */
+public class CircuitBreaker
+{
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    /**
+     * Current state
+     */
+    private final AtomicInteger state = new AtomicInteger(CLOSED);
+
+    /**
+     * The number of consecutive failures
+     */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * The number of failures after which circuit opens
+     */
+    private final int failureThreshold;
+
+    /**
+     * Time in milliseconds circuit stays open before probing the service
+     */
+    private final long openTime;
+
+    /**
+     * Time when circuit was opened
+     */
+    private volatile long openedAt;
+
+    /**
+     * Creates circuit breaker.
+     * @param failureThreshold The number of consecutive failures after which circuit opens
+     * @param openTime Time in milliseconds circuit stays open before probing the service
+     */
+    public CircuitBreaker(int failureThreshold, long openTime)
+    {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openTime = Math.max(1, openTime);
+    }
+
+    /**
+     * Checks whether call may be made. In open state, the first caller after <i>openTime</i>
+     * is allowed to probe the service.
+     * @return true if call may be made
+     */
+    public boolean allowRequest()
+    {
+        switch (state.get())
+        {
+            case CLOSED:
+                return true;
+
+            case OPEN:
+                return System.currentTimeMillis() - openedAt >= openTime && state.compareAndSet(OPEN, HALF_OPEN);
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Records successful call.
+     */
+    public void success()
+    {
+        failures.set(0);
+
+        if (state.get() != CLOSED)
+            state.set(CLOSED);
+    }
+
+    /**
+     * Records failed call.
+     */
+    public void failure()
+    {
+        if (failures.incrementAndGet() >= failureThreshold || state.get() == HALF_OPEN)
+        {
+            int current = state.get();
+            if (current != OPEN && state.compareAndSet(current, OPEN))
+                openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Records call that has not been made for local reasons. If it was the probe, another caller may probe the service.
+     */
+    public void cancel()
+    {
+        state.compareAndSet(HALF_OPEN, OPEN);
+    }
+
+    /**
+     * @return Current state: CLOSED, OPEN or HALF_OPEN
+     */
+    public int getState()
+    {
+        return state.get();
+    }
+
+    /**
+     * @return Seconds left until service is probed again, at least 1.
+     */
+    public int getRetryAfter()
+    {
+        long left = openTime - (System.currentTimeMillis() - openedAt);
+        return (int) Math.max(1, (left + 999) / 1000);
+    }
+}
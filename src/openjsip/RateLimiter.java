@@ -0,0 +1,536 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Per-source rate limiter protecting services from floods and SIP scanners.
+ * <p>
+ * Each source address has token buckets for REGISTER, INVITE and other requests, and for authentication
+ * failures. Requests exceeding the budget are rejected, and sources which keep exceeding it or run out of
+ * authentication failure budget are banned for a while, so that all their requests are dropped without
+ * any processing. Sources idle for a long time are evicted from the table. Requests of sources which
+ * do not fit into the table are not limited, they are only counted.
+ * <p>
+ * The check is cheap and involves no remote calls, so it is done before any other request processing.
+ */
+public class RateLimiter
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(RateLimiter.class);
+
+    public static final int REGISTER_BUDGET = 0;
+    public static final int INVITE_BUDGET = 1;
+    public static final int OTHER_BUDGET = 2;
+    public static final int AUTH_FAILURE_BUDGET = 3;
+
+    /**
+     * Budget names used in configuration
+     */
+    public static final String[] BUDGET_NAMES = { "register", "invite", "other", "auth.failure" };
+
+    /**
+     * Default rates, tokens per second
+     */
+    private static final double[] DEFAULT_RATES = { 10, 20, 50, 0.2 };
+
+    /**
+     * Default bucket sizes
+     */
+    private static final double[] DEFAULT_BURSTS = { 50, 100, 200, 10 };
+
+    /**
+     * Request is allowed
+     */
+    public static final int ALLOWED = 0;
+
+    /**
+     * Request exceeds budget of the source and is to be rejected
+     */
+    public static final int LIMITED = 1;
+
+    /**
+     * Source is banned, request is to be dropped silently
+     */
+    public static final int BANNED = 2;
+
+    /**
+     * Sources by address
+     */
+    private final ConcurrentHashMap<String, Source> sources;
+
+    /**
+     * The number of sources in the table
+     */
+    private final AtomicInteger numSources = new AtomicInteger();
+
+    /**
+     * Token rates of budgets, tokens per millisecond
+     */
+    private final double[] rates;
+
+    /**
+     * Bucket sizes of budgets
+     */
+    private final double[] bursts;
+
+    /**
+     * The number of rejected requests after which source is banned
+     */
+    private final int banThreshold;
+
+    /**
+     * Ban duration in milliseconds
+     */
+    private final long banTime;
+
+    /**
+     * Time in milliseconds after which idle source is evicted
+     */
+    private final long idleTime;
+
+    /**
+     * Maximum number of sources in the table
+     */
+    private final int maxSources;
+
+    /**
+     * Retry-After value in seconds for rejected requests
+     */
+    private final int retryAfter;
+
+    /**
+     * Time of the last eviction of idle sources
+     */
+    private final AtomicLong lastSweep;
+
+    /**
+     * Statistics
+     */
+    private final AtomicLong numLimited = new AtomicLong();
+    private final AtomicLong numDropped = new AtomicLong();
+    private final AtomicLong numBans = new AtomicLong();
+
+    /**
+     * The number of requests from sources which are not tracked, because source address is unknown or table is full
+     */
+    private final AtomicLong numUntracked = new AtomicLong();
+
+    /**
+     * Creates rate limiter.
+     * @param rates Token rates of budgets, tokens per second
+     * @param bursts Bucket sizes of budgets
+     * @param banThreshold The number of rejected requests after which source is banned
+     * @param banTime Ban duration in milliseconds
+     * @param idleTime Time in milliseconds after which idle source is evicted
+     * @param maxSources Maximum number of sources in the table
+     * @param retryAfter Retry-After value in seconds for rejected requests
+     */
+    public RateLimiter(double[] rates, double[] bursts, int banThreshold, long banTime, long idleTime, int maxSources, int retryAfter)
+    {
+        this.rates = new double[BUDGET_NAMES.length];
+        this.bursts = new double[BUDGET_NAMES.length];
+
+        for (int i = 0; i < BUDGET_NAMES.length; i++)
+        {
+            this.rates[i] = Math.max(0, rates[i]) / 1000;
+            this.bursts[i] = Math.max(1, bursts[i]);
+        }
+
+        this.banThreshold = Math.max(1, banThreshold);
+        this.banTime = Math.max(0, banTime);
+        this.idleTime = Math.max(1000, idleTime);
+        this.maxSources = Math.max(1, maxSources);
+        this.retryAfter = Math.max(0, retryAfter);
+
+        sources = new ConcurrentHashMap<String, Source>(Math.min(this.maxSources, 1024));
+        lastSweep = new AtomicLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Creates rate limiter configured by properties <i>prefix</i>.enabled ( no by default ),
+     * <i>prefix</i>.&lt;budget&gt;.rate ( tokens per second ) and <i>prefix</i>.&lt;budget&gt;.burst for budgets
+     * register, invite, other and auth.failure, <i>prefix</i>.ban.threshold ( 20 by default ),
+     * <i>prefix</i>.ban.time ( seconds, 600 by default ), <i>prefix</i>.idle.time ( seconds, 300 by default )
+     * <i>prefix</i>.max.sources ( 100000 by default ) and <i>prefix</i>.retry.after ( seconds, 5 by default ).
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return Rate limiter or null if rate limiting is disabled
+     */
+    public static RateLimiter createFromProperties(Properties props, String prefix)
+    {
+        if (!props.getProperty(prefix + ".enabled", "no").trim().equalsIgnoreCase("yes"))
+            return null;
+
+        double[] rates = new double[BUDGET_NAMES.length];
+        double[] bursts = new double[BUDGET_NAMES.length];
+
+        for (int i = 0; i < BUDGET_NAMES.length; i++)
+        {
+            rates[i] = DEFAULT_RATES[i];
+            bursts[i] = DEFAULT_BURSTS[i];
+
+            try
+            {
+                rates[i] = Double.parseDouble(props.getProperty(prefix + "." + BUDGET_NAMES[i] + ".rate", Double.toString(DEFAULT_RATES[i])).trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // ignored
+            }
+
+            try
+            {
+                bursts[i] = Double.parseDouble(props.getProperty(prefix + "." + BUDGET_NAMES[i] + ".burst", Double.toString(DEFAULT_BURSTS[i])).trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // ignored
+            }
+        }
+
+        int banThreshold = 20;
+        int banTime = 600;
+        int idleTime = 300;
+        int maxSources = 100000;
+        int retryAfter = 5;
+
+        try
+        {
+            banThreshold = Integer.parseInt(props.getProperty(prefix + ".ban.threshold", "20").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            banTime = Integer.parseInt(props.getProperty(prefix + ".ban.time", "600").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            idleTime = Integer.parseInt(props.getProperty(prefix + ".idle.time", "300").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            maxSources = Integer.parseInt(props.getProperty(prefix + ".max.sources", "100000").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            retryAfter = Integer.parseInt(props.getProperty(prefix + ".retry.after", "5").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        if (log.isInfoEnabled())
+            log.info("Rate limiting enabled: ban after " + banThreshold + " rejected requests for " + banTime + " seconds.");
+
+        return new RateLimiter(rates, bursts, banThreshold, banTime * 1000L, idleTime * 1000L, maxSources, retryAfter);
+    }
+
+    /**
+     * Checks whether request from <i>address</i> may be processed. ACK and CANCEL are only subject to bans.
+     * @param address Source address
+     * @param method Request method
+     * @return ALLOWED, LIMITED or BANNED
+     */
+    public int check(String address, String method)
+    {
+        long now = System.currentTimeMillis();
+        sweep(now);
+
+        Source source = getSource(address, now);
+
+        // Untracked sources are never limited, otherwise one flood would make all of them share its penalty
+        if (source == null)
+        {
+            numUntracked.incrementAndGet();
+            return ALLOWED;
+        }
+
+        source.lastSeen = now;
+
+        if (source.bannedUntil > now)
+        {
+            numDropped.incrementAndGet();
+            return BANNED;
+        }
+
+        int budget;
+        if (method.equals("REGISTER"))
+            budget = REGISTER_BUDGET;
+        else if (method.equals("INVITE"))
+            budget = INVITE_BUDGET;
+        else if (method.equals("ACK") || method.equals("CANCEL"))
+            return ALLOWED;
+        else
+            budget = OTHER_BUDGET;
+
+        synchronized (source)
+        {
+            if (source.take(budget, now, rates, bursts))
+            {
+                if (source.violations > 0)
+                    source.violations--;
+
+                return ALLOWED;
+            }
+
+            numLimited.incrementAndGet();
+
+            if (++source.violations >= banThreshold)
+                ban(address, source, now, "too many requests");
+        }
+
+        return LIMITED;
+    }
+
+    /**
+     * Records authentication failure of <i>address</i>. Source is banned when its authentication failure budget is exhausted.
+     * @param address Source address
+     */
+    public void authFailed(String address)
+    {
+        long now = System.currentTimeMillis();
+        Source source = getSource(address, now);
+        if (source == null)
+        {
+            numUntracked.incrementAndGet();
+            return;
+        }
+
+        synchronized (source)
+        {
+            if (!source.take(AUTH_FAILURE_BUDGET, now, rates, bursts))
+                ban(address, source, now, "too many authentication failures");
+        }
+    }
+
+    /**
+     * Lifts ban of <i>address</i>.
+     * @param address Source address
+     * @return false if address was not banned
+     */
+    public boolean unban(String address)
+    {
+        Source source = sources.get(address);
+        if (source == null || source.bannedUntil <= System.currentTimeMillis())
+            return false;
+
+        synchronized (source)
+        {
+            source.bannedUntil = 0;
+            source.violations = 0;
+        }
+
+        if (log.isInfoEnabled())
+            log.info("Source " + address + " unbanned.");
+
+        return true;
+    }
+
+    /**
+     * @return Retry-After value in seconds for rejected requests
+     */
+    public int getRetryAfter()
+    {
+        return retryAfter;
+    }
+
+    /**
+     * @return Summary of limiter state
+     */
+    public String getStatistics()
+    {
+        long now = System.currentTimeMillis();
+        int banned = 0;
+
+        for (Source source : sources.values())
+            if (source.bannedUntil > now)
+                banned++;
+
+        return "sources: " + numSources.get() + ", banned: " + banned + ", rejected: " + numLimited.get() +
+               ", dropped: " + numDropped.get() + ", bans: " + numBans.get() + ", untracked: " + numUntracked.get();
+    }
+
+    /**
+     * @return Banned addresses with seconds left, one per line
+     */
+    public String getBannedSources()
+    {
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<String, Source> entry : sources.entrySet())
+        {
+            long left = entry.getValue().bannedUntil - now;
+            if (left > 0)
+                sb.append(entry.getKey()).append(' ').append((left + 999) / 1000).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Bans source. Caller must hold lock of <i>source</i>.
+     */
+    private void ban(String address, Source source, long now, String reason)
+    {
+        source.bannedUntil = now + banTime;
+        source.violations = 0;
+        numBans.incrementAndGet();
+
+        if (log.isInfoEnabled())
+            log.info("Source " + address + " banned for " + (banTime / 1000) + " seconds: " + reason + ".");
+    }
+
+    /**
+     * Finds or creates source.
+     * @return Source, or null if address is unknown or table is full
+     */
+    private Source getSource(String address, long now)
+    {
+        if (address == null)
+            return null;
+
+        Source source = sources.get(address);
+        if (source != null)
+            return source;
+
+        if (numSources.get() >= maxSources)
+            return null;
+
+        source = new Source(bursts, now);
+        Source previous = sources.putIfAbsent(address, source);
+        if (previous != null)
+            return previous;
+
+        numSources.incrementAndGet();
+        return source;
+    }
+
+    /**
+     * Evicts idle sources. Only one thread sweeps at a time, at most once per half of idle time.
+     */
+    private void sweep(long now)
+    {
+        long last = lastSweep.get();
+        if (now - last < idleTime / 2 || !lastSweep.compareAndSet(last, now))
+            return;
+
+        for (Iterator<Source> it = sources.values().iterator(); it.hasNext(); )
+        {
+            Source source = it.next();
+            if (now - source.lastSeen > idleTime && source.bannedUntil <= now)
+            {
+                it.remove();
+                numSources.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * State of one source
+     */
+    private static class Source
+    {
+        /**
+         * Tokens of each budget
+         */
+        private final double[] tokens;
+
+        /**
+         * Time when tokens were refilled
+         */
+        private long lastRefill;
+
+        /**
+         * The number of rejected requests, decreased by allowed ones
+         */
+        private int violations;
+
+        /**
+         * Time of the last request
+         */
+        private volatile long lastSeen;
+
+        /**
+         * Time until which source is banned
+         */
+        private volatile long bannedUntil;
+
+        private Source(double[] bursts, long now)
+        {
+            tokens = bursts.clone();
+            lastRefill = now;
+            lastSeen = now;
+        }
+
+        /**
+         * Refills buckets and takes a token of <i>budget</i>. Caller must hold lock of this object.
+         * @return false if budget is exhausted
+         */
+        private boolean take(int budget, long now, double[] rates, double[] bursts)
+        {
+            long elapsed = now - lastRefill;
+            if (elapsed > 0)
+            {
+                for (int i = 0; i < tokens.length; i++)
+                    tokens[i] = Math.min(bursts[i], tokens[i] + elapsed * rates[i]);
+
+                lastRefill = now;
+            }
+
+            if (tokens[budget] < 1)
+                return false;
+
+            tokens[budget]--;
+            return true;
+        }
+    }
+}
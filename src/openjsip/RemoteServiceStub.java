@@ -0,0 +1,679 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip;
+
+import openjsip.remote.RemoteServiceInterface;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the stub of remote service resolved from RMI registry, so that requests do not pay
+ * for registry lookup. Stub is accessed through a dynamic proxy: if remote object cannot be reached
+ * or does not exist any more ( service has been restarted ), stub is looked up again and the call is retried once.
+ * Only failures which guarantee that the call was not executed are retried.
+ * Service is also checked periodically with isAlive() in background.
+ * <p>
+ * Calls may be given a deadline: they are then made by separate threads and caller gives up waiting
+ * when deadline passes. Calls are also guarded by circuit breaker, so that unhealthy service is not contacted
+ * at all for a while. In both cases ServiceUnavailableException is thrown. If there is no thread to make
+ * the call, CallRejectedException is thrown instead and the circuit breaker is not affected.
+ * <p>
+ * The number of calls in progress may be limited. Callers above the limit wait for their turn, but not
+ * longer than the call deadline, so that many request threads can share a service without overloading it.
+ * When callers are virtual threads, calls with deadline are made by virtual threads too, and this limit
+ * is the only one on calls in progress.
+ */
+public class RemoteServiceStub<T extends RemoteServiceInterface> implements InvocationHandler
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(RemoteServiceStub.class);
+
+    /**
+     * Remote interface
+     */
+    private final Class<T> type;
+
+    /**
+     * RMI registry host
+     */
+    private final String host;
+
+    /**
+     * RMI registry port
+     */
+    private final int port;
+
+    /**
+     * Name of service within RMI registry
+     */
+    private final String name;
+
+    /**
+     * Dynamic proxy given to callers
+     */
+    private final T proxy;
+
+    /**
+     * Resolved stub, null if service is not available
+     */
+    private volatile T stub;
+
+    /**
+     * Is set after the first successful lookup
+     */
+    private boolean resolvedBefore;
+
+    /**
+     * Listeners notified when stub has been looked up again
+     */
+    private final Vector<Listener<T>> listeners = new Vector<Listener<T>>();
+
+    /**
+     * Liveness check timer
+     */
+    private final Timer checkTimer;
+
+    /**
+     * Call deadline in milliseconds, zero if calls are made by caller thread without deadline
+     */
+    private final long timeout;
+
+    /**
+     * Threads making calls with deadline, null if there is no deadline
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Circuit breaker, may be null
+     */
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * Limits the number of calls in progress, may be null
+     */
+    private final Semaphore limiter;
+
+    /**
+     * Creates stub manager.
+     * @param type Remote interface
+     * @param host RMI registry host
+     * @param port RMI registry port
+     * @param name Name of service within RMI registry
+     * @param checkInterval Liveness check interval in seconds, zero disables checks.
+     * @param timeout Call deadline in milliseconds, zero disables deadlines.
+     * @param threads Maximum number of calls with deadline made at once
+     * @param circuitBreaker Circuit breaker, may be null.
+     * @param maxConcurrent Maximum number of calls in progress, zero means no limit.
+     */
+    public RemoteServiceStub(Class<T> type, String host, int port, String name, int checkInterval, long timeout, int threads, CircuitBreaker circuitBreaker, int maxConcurrent)
+    {
+        this(type, host, port, name, checkInterval, timeout, threads, circuitBreaker, maxConcurrent, null);
+    }
+
+    /**
+     * Creates stub manager.
+     * @param type Remote interface
+     * @param host RMI registry host
+     * @param port RMI registry port
+     * @param name Name of service within RMI registry
+     * @param checkInterval Liveness check interval in seconds, zero disables checks.
+     * @param timeout Call deadline in milliseconds, zero disables deadlines.
+     * @param threads Maximum number of calls with deadline made at once, ignored if <i>threadFactory</i> is given.
+     * @param circuitBreaker Circuit breaker, may be null.
+     * @param maxConcurrent Maximum number of calls in progress, zero means no limit.
+     * @param threadFactory Factory of threads making calls with deadline ( e.g. virtual threads ), a new thread
+     * is started for each call. If null, calls are made by a pool of at most <i>threads</i> platform threads.
+     */
+    @SuppressWarnings("unchecked")
+    public RemoteServiceStub(Class<T> type, String host, int port, String name, int checkInterval, long timeout, int threads, CircuitBreaker circuitBreaker, int maxConcurrent, ThreadFactory threadFactory)
+    {
+        this.type = type;
+        this.host = host;
+        this.port = port;
+        this.name = name;
+        this.proxy = (T) java.lang.reflect.Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, this);
+        this.timeout = Math.max(0, timeout);
+        this.circuitBreaker = circuitBreaker;
+        this.limiter = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+
+        if (this.timeout > 0 && threadFactory != null)
+        {
+            // Threads are not kept alive, so each call gets a new one
+            executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), threadFactory);
+        }
+        else if (this.timeout > 0)
+        {
+            executor = new ThreadPoolExecutor(0, Math.max(1, threads), 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory()
+            {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "RemoteCall-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        else
+            executor = null;
+
+        if (checkInterval > 0)
+        {
+            checkTimer = new Timer(true);
+            checkTimer.schedule(new TimerTask()
+            {
+                public void run()
+                {
+                    check();
+                }
+            }, checkInterval * 1000L, checkInterval * 1000L);
+        }
+        else
+            checkTimer = null;
+    }
+
+    /**
+     * Creates stub manager configured by properties <i>prefix</i>.rmi.host ( localhost by default ),
+     * <i>prefix</i>.rmi.port ( 1099 by default ), <i>prefix</i>.rmi.objectname,
+     * <i>prefix</i>.rmi.check.interval ( seconds, 5 by default ), <i>prefix</i>.rmi.timeout ( milliseconds, 2000 by default ),
+     * <i>prefix</i>.rmi.threads ( 64 by default ), <i>prefix</i>.rmi.breaker.failures ( 5 by default, 0 disables circuit breaker ),
+     * <i>prefix</i>.rmi.breaker.open.time ( seconds, 5 by default ) and <i>prefix</i>.rmi.max.concurrent ( 0 by default, no limit ).
+     * @param type Remote interface
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @param defaultName Default name of service within RMI registry
+     * @return Stub manager
+     */
+    public static <T extends RemoteServiceInterface> RemoteServiceStub<T> createFromProperties(Class<T> type, Properties props, String prefix, String defaultName)
+    {
+        return createFromProperties(type, props, prefix, defaultName, false);
+    }
+
+    /**
+     * Creates stub manager configured by properties, see above.
+     * @param type Remote interface
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @param defaultName Default name of service within RMI registry
+     * @param virtualThreads If true, stub is shared by unlimited number of virtual threads. Calls with deadline are then made
+     * by virtual threads too, and <i>prefix</i>.rmi.max.concurrent, which defaults to <i>prefix</i>.rmi.threads, limits calls in progress.
+     * @return Stub manager
+     */
+    public static <T extends RemoteServiceInterface> RemoteServiceStub<T> createFromProperties(Class<T> type, Properties props, String prefix, String defaultName, boolean virtualThreads)
+    {
+        String host = props.getProperty(prefix + ".rmi.host", "localhost").trim();
+        String name = props.getProperty(prefix + ".rmi.objectname", defaultName).trim();
+        int port = 1099;
+        int checkInterval = 5;
+        int timeout = 2000;
+        int threads = 64;
+        int breakerFailures = 5;
+        int breakerOpenTime = 5;
+        int maxConcurrent = 0;
+
+        try
+        {
+            port = Integer.parseInt(props.getProperty(prefix + ".rmi.port", "1099").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            checkInterval = Integer.parseInt(props.getProperty(prefix + ".rmi.check.interval", "5").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            timeout = Integer.parseInt(props.getProperty(prefix + ".rmi.timeout", "2000").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            threads = Integer.parseInt(props.getProperty(prefix + ".rmi.threads", "64").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            breakerFailures = Integer.parseInt(props.getProperty(prefix + ".rmi.breaker.failures", "5").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            breakerOpenTime = Integer.parseInt(props.getProperty(prefix + ".rmi.breaker.open.time", "5").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        ThreadFactory threadFactory = null;
+
+        if (virtualThreads)
+        {
+            maxConcurrent = Math.max(1, threads);
+            threadFactory = VirtualThreadExecutor.createThreadFactory("RemoteCall");
+        }
+
+        try
+        {
+            maxConcurrent = Integer.parseInt(props.getProperty(prefix + ".rmi.max.concurrent", Integer.toString(maxConcurrent)).trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        CircuitBreaker circuitBreaker = breakerFailures > 0 ? new CircuitBreaker(breakerFailures, breakerOpenTime * 1000L) : null;
+
+        return new RemoteServiceStub<T>(type, host, port, name, checkInterval, timeout, threads, circuitBreaker, maxConcurrent, threadFactory);
+    }
+
+    /**
+     * Returns remote service. The returned object may be kept by caller, it survives service restarts.
+     * @return Remote service, or null if service cannot be found in RMI registry.
+     */
+    public T get()
+    {
+        // Calls fail fast while circuit is open, no need to look service up
+        if (circuitBreaker != null && circuitBreaker.getState() != CircuitBreaker.CLOSED)
+            return proxy;
+
+        return getStub() != null ? proxy : null;
+    }
+
+    /**
+     * @return Circuit breaker, or null if not used.
+     */
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+
+    /**
+     * Adds listener notified each time stub is looked up again, for example to restore subscriptions
+     * made on remote service before it was restarted.
+     * @param listener Listener
+     */
+    public void addListener(Listener<T> listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops liveness checks.
+     */
+    public void shutdown()
+    {
+        if (checkTimer != null)
+            checkTimer.cancel();
+
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * @return Resolved stub. If there is none, registry is asked for it.
+     */
+    private T getStub()
+    {
+        T target = stub;
+        return target != null ? target : resolve();
+    }
+
+    /**
+     * Looks up stub in RMI registry.
+     * @return Stub, or null if service cannot be found.
+     */
+    private synchronized T resolve()
+    {
+        if (stub != null)
+            return stub;
+
+        T target;
+
+        try
+        {
+            Registry registry = LocateRegistry.getRegistry(host, port);
+            target = type.cast(registry.lookup(name));
+        }
+        catch (Exception ex)
+        {
+            if (log.isDebugEnabled())
+                log.debug("Cannot find remote service " + this + ": " + ex.getMessage());
+
+            return null;
+        }
+
+        stub = target;
+
+        if (resolvedBefore)
+        {
+            if (log.isInfoEnabled())
+                log.info("Reconnected to remote service " + this);
+
+            for (Listener<T> listener : listeners)
+                listener.stubResolved(target);
+        }
+
+        resolvedBefore = true;
+
+        return target;
+    }
+
+    /**
+     * Drops stub if it is still the current one.
+     * @param target Stub that has failed
+     */
+    private synchronized void invalidate(T target)
+    {
+        if (stub == target)
+        {
+            stub = null;
+
+            if (log.isDebugEnabled())
+                log.debug("Stub of remote service " + this + " is invalidated.");
+        }
+    }
+
+    /**
+     * Checks that remote service is alive and looks it up again if it is not.
+     */
+    private void check()
+    {
+        T target = stub;
+        if (target != null)
+        {
+            try
+            {
+                if (target.isAlive())
+                    return;
+            }
+            catch (RemoteException ex)
+            {
+                log.warn("Remote service " + this + " does not respond: " + ex.getMessage());
+            }
+
+            invalidate(target);
+        }
+
+        resolve();
+    }
+
+    /**
+     * @param ex Exception raised by remote call
+     * @return true if exception means that remote call has not been executed and stub must be looked up again.
+     */
+    public static boolean isStale(Throwable ex)
+    {
+        return ex instanceof ConnectException || ex instanceof ConnectIOException || ex instanceof NoSuchObjectException;
+    }
+
+    /**
+     * @see java.lang.reflect.InvocationHandler
+     */
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        if (method.getDeclaringClass() == Object.class)
+        {
+            if (method.getName().equals("equals"))
+                return proxy == args[0];
+            else if (method.getName().equals("hashCode"))
+                return System.identityHashCode(proxy);
+            else
+                return toString();
+        }
+
+        if (limiter == null)
+            return invokeRemote(method, args);
+
+        boolean acquired = true;
+
+        try
+        {
+            // Waiting for a turn is bounded by the call deadline too
+            if (timeout > 0)
+                acquired = limiter.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+            else
+                limiter.acquire();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Remote call " + method.getName() + " to " + this + " interrupted.", 1);
+        }
+
+        if (!acquired)
+            throw new CallRejectedException("Too many pending calls to " + this, 1);
+
+        try
+        {
+            return invokeRemote(method, args);
+        }
+        finally
+        {
+            limiter.release();
+        }
+    }
+
+    /**
+     * Calls method of remote service, guarded by circuit breaker. Stale stub is looked up again and the call is retried once.
+     * @param method Method
+     * @param args Arguments
+     * @return Result of call
+     * @throws Throwable Exception thrown by method or ServiceUnavailableException
+     */
+    private Object invokeRemote(Method method, Object[] args) throws Throwable
+    {
+        for (int attempt = 0; ; attempt++)
+        {
+            if (circuitBreaker != null && !circuitBreaker.allowRequest())
+                throw new ServiceUnavailableException("Remote service " + this + " is considered unavailable.", circuitBreaker.getRetryAfter());
+
+            T target = getStub();
+            if (target == null)
+            {
+                if (circuitBreaker != null)
+                    circuitBreaker.failure();
+
+                throw new ConnectException("Remote service " + this + " is not available.");
+            }
+
+            try
+            {
+                Object result = call(target, method, args);
+
+                if (circuitBreaker != null)
+                    circuitBreaker.success();
+
+                return result;
+            }
+            catch (InvocationTargetException ex)
+            {
+                Throwable cause = ex.getCause();
+
+                // Application exceptions mean that service is working
+                if (circuitBreaker != null)
+                {
+                    if (cause instanceof RemoteException)
+                        circuitBreaker.failure();
+                    else
+                        circuitBreaker.success();
+                }
+
+                if (!isStale(cause))
+                    throw cause;
+
+                invalidate(target);
+
+                if (attempt > 0)
+                    throw cause;
+
+                if (log.isDebugEnabled())
+                    log.debug("Remote call " + method.getName() + " to " + this + " failed ( " + cause.getMessage() + " ), retrying.");
+            }
+            catch (CallRejectedException ex)
+            {
+                // Call has not been made, this says nothing about service health
+                if (circuitBreaker != null)
+                    circuitBreaker.cancel();
+
+                if (log.isDebugEnabled())
+                    log.debug("Remote call " + method.getName() + " to " + this + " rejected: " + ex.getMessage());
+
+                throw ex;
+            }
+            catch (ServiceUnavailableException ex)
+            {
+                if (circuitBreaker != null)
+                    circuitBreaker.failure();
+
+                if (log.isDebugEnabled())
+                    log.debug("Remote call " + method.getName() + " to " + this + " failed: " + ex.getMessage());
+
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Calls method of stub. If deadline is set, the call is made by another thread.
+     * @param target Stub
+     * @param method Method
+     * @param args Arguments
+     * @return Result of call
+     * @throws InvocationTargetException If method has thrown exception
+     * @throws ServiceUnavailableException If deadline has passed
+     * @throws CallRejectedException If there is no thread to make the call
+     * @throws IllegalAccessException Never
+     */
+    private Object call(final T target, final Method method, final Object[] args) throws InvocationTargetException, ServiceUnavailableException, IllegalAccessException
+    {
+        if (executor == null)
+            return method.invoke(target, args);
+
+        Future<Object> future;
+
+        try
+        {
+            future = executor.submit(new Callable<Object>()
+            {
+                public Object call() throws Exception
+                {
+                    return method.invoke(target, args);
+                }
+            });
+        }
+        catch (RejectedExecutionException ex)
+        {
+            throw new CallRejectedException("Too many pending calls to " + this, 1);
+        }
+
+        try
+        {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof InvocationTargetException)
+                throw (InvocationTargetException) cause;
+            else if (cause instanceof IllegalAccessException)
+                throw (IllegalAccessException) cause;
+            else
+                throw new InvocationTargetException(cause);
+        }
+        catch (TimeoutException ex)
+        {
+            future.cancel(true);
+            throw new ServiceUnavailableException("Remote call " + method.getName() + " to " + this + " timed out.", circuitBreaker != null ? circuitBreaker.getRetryAfter() : 1);
+        }
+        catch (InterruptedException ex)
+        {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Remote call " + method.getName() + " to " + this + " interrupted.", 1);
+        }
+    }
+
+    public String toString()
+    {
+        return host + ":" + port + "/" + name;
+    }
+
+    /**
+     * Receives notifications about stub being looked up again.
+     */
+    public interface Listener<T>
+    {
+        /**
+         * Called when stub has been looked up again after failure.
+         * @param stub New stub
+         */
+        public void stubResolved(T stub);
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when remote service has not answered in time or is considered unhealthy and is not contacted at all.
+ * Requests depending on the service should be answered with 503 (Service Unavailable).
+ */
+public class ServiceUnavailableException extends RemoteException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Suggested Retry-After value in seconds
+     */
+    private final int retryAfter;
+
+    public ServiceUnavailableException(String message, int retryAfter)
+    {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return Suggested Retry-After value in seconds
+     */
+    public int getRetryAfter()
+    {
+        return retryAfter;
+    }
+}
@@ -1,200 +1,626 @@
-/**
- * This file is part of OpenJSIP, a free SIP service components.
- *
- * OpenJSIP is free software; you can redistribute it and/or modify
- * it under the terms of the GNU General Public License as published by
- * the Free Software Foundation; either version 2 of the License, or
- * (at your option) any later version
- *
- * OpenJSIP is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU General Public License for more details.
- *
- * You should have received a copy of the GNU General Public License
- * along with this program; if not, write to the Free Software
- * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
- *
- * Copyright (c) 2009 - Yevgen Krapiva
- */
-package openjsip;
-
-import gov.nist.javax.sip.address.SipUri;
-
-import javax.sip.message.Request;
-import javax.sip.message.MessageFactory;
-import javax.sip.message.Response;
-import javax.sip.header.ToHeader;
-import javax.sip.SipProvider;
-import javax.sip.ServerTransaction;
-import javax.sip.InvalidArgumentException;
-import javax.sip.SipException;
-import javax.sip.address.URI;
-import javax.sip.address.Address;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.text.ParseException;
-
-
-public class SipUtils
-{
-    public static final String OPENJSIP_VERSION = "0.0.4";
-    public static final String BRANCH_MAGIC_COOKIE = "z9hG4bK";
-    
-    /**
-	 * toHex
-	 */
-    private static final char[] toHex = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
-
-    private SipUtils()
-    {
-
-    }
-
-    /**
-     * @return Branch id value
-     */
-    public static String generateBranchId()
-    {
-        StringBuffer ret = new StringBuffer();
-        StringBuffer b = new StringBuffer();
-        String hex;
-
-        b.append(Integer.toString((int) (Math.random() * 10000)));
-        b.append(System.currentTimeMillis());
-
-        try
-        {
-            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-            byte[] bytes = messageDigest.digest(b.toString().getBytes());
-            hex = toHexString(bytes);
-        }
-        catch(NoSuchAlgorithmException ex)
-        {
-            hex = "NoSuchAlgorithmExceptionMD5";
-        }
-
-        ret.append(BRANCH_MAGIC_COOKIE + hex);
-
-
-        return ret.toString();
-    }
-
-    /**
-     * @param b Array of bytes
-     * @return A hexadecimal string
-     */
-    public static String toHexString(byte[] b)
-    {
-        int pos = 0;
-        char[] c = new char[b.length * 2];
-
-        for (int i = 0; i < b.length; i++)
-        {
-            c[pos++] = toHex[(b[i] >> 4) & 0x0F];
-            c[pos++] = toHex[b[i] & 0x0f];
-        }
-
-        return new String(c);
-    }   
-
-    /**
-     * If URI is the SIP URI, method returns its clone without any parameters,
-     * otherwise original URI is returned without any modifications.
-     * @param uri URI
-     * @return Canonicalized URI ( without parameters )
-     */
-    public static URI getCanonicalizedURI(URI uri)
-    {
-        if (uri != null && uri.isSipURI())
-        {
-            SipUri sipUri = (SipUri) uri.clone();
-            sipUri.clearUriParms();
-
-            return sipUri;
-        }
-        else
-            return uri;
-    }
-
-    /**
-     * @param request Original request
-     * @return The key value to use with location service database. Key is needed to find current location of subscriber specified in To header of <i>request</i>. Returns null if To header is not SIP URI like.
-     */
-    public static String getKeyToLocationService(Request request)
-    {
-        ToHeader toHeader = (ToHeader) request.getHeader(ToHeader.NAME);
-        if (toHeader != null)
-        {
-            Address address = toHeader.getAddress();
-
-            /**
-             * The To header field and the Request-URI field typically differ, as
-             * the former contains a user name.  This address-of-record MUST
-             * be a SIP URI or SIPS URI.
-             */
-            return getKeyToLocationService(address.getURI());
-        }
-
-        return null;
-    }
-
-    /**
-     * @param uri URI to make key value from.
-     * @return The key value to use with location service database. Key is needed to find current location of subscriber by <i>uri</i>. Returns null if <i>uri</i> is not SIP URI like.
-     */
-    public static String getKeyToLocationService(URI uri)
-    {
-        URI canonicalizedUri = SipUtils.getCanonicalizedURI(uri);
-        if (canonicalizedUri.isSipURI())
-        {
-            // Clearing just parameters as specified in RFC is not enough
-            SipUri sipUri = (SipUri) canonicalizedUri;
-            sipUri.clearPassword();
-            sipUri.removePort();
-            sipUri.clearQheaders();
-
-            return sipUri.toString();
-        }
-
-
-        return null;
-    }
-
-    /**
-     * Creates and dispatches response
-     * @param responseId Response identifier
-     * @param sipProvider SipProvider object
-     * @param messageFactory MessageFactory object
-     * @param request Request object
-     * @param serverTransaction ServerTransaction object
-     * @throws java.text.ParseException
-     * @throws javax.sip.InvalidArgumentException
-     * @throws javax.sip.SipException
-     */
-    public static void sendResponse(int responseId, SipProvider sipProvider, MessageFactory messageFactory, Request request, ServerTransaction serverTransaction) throws ParseException, InvalidArgumentException, SipException
-    {
-        Response response = messageFactory.createResponse(responseId, request);
-        if (serverTransaction != null)
-            serverTransaction.sendResponse(response);
-        else
-            sipProvider.sendResponse(response);
-    }
-
-    public static void sendResponseSafe(int errorId, SipProvider sipProvider, MessageFactory messageFactory, Request request, ServerTransaction serverTransaction)
-    {
-        try
-        {
-            Response response = messageFactory.createResponse(errorId, request);
-            if (serverTransaction != null)
-                serverTransaction.sendResponse(response);
-            else
-                sipProvider.sendResponse(response);
-        }
-        catch (Exception ex)
-        {
-
-        }       
-    }
-        
-}
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip;
+
+import gov.nist.javax.sip.address.SipUri;
+import gov.nist.javax.sip.message.SIPRequest;
+import gov.nist.javax.sip.stack.MessageChannel;
+
+import javax.sip.message.Request;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Response;
+import javax.sip.header.ToHeader;
+import javax.sip.header.SupportedHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.CSeqHeader;
+import javax.sip.SipProvider;
+import javax.sip.ServerTransaction;
+import javax.sip.InvalidArgumentException;
+import javax.sip.SipException;
+import javax.sip.address.URI;
+import javax.sip.address.SipURI;
+import javax.sip.address.Address;
+import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.text.ParseException;
+import java.nio.charset.Charset;
+import java.util.ListIterator;
+import java.util.Vector;
+
+
+public class SipUtils
+{
+    public static final String OPENJSIP_VERSION = "0.0.4";
+    public static final String BRANCH_MAGIC_COOKIE = "z9hG4bK";
+    public static final String PATH_HEADER = "Path";
+    public static final String PATH_OPTION_TAG = "path";
+    
+    /**
+	 * toHex
+	 */
+    private static final char[] toHex = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    /**
+     * Charset of encoded SIP messages
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Size of location service key cache, power of two
+     */
+    private static final int KEY_CACHE_SIZE = 4096;
+
+    /**
+     * Recently derived location service keys, indexed by hash. Entries are overwritten on collision,
+     * so the cache is bounded and needs no locking: a reference is either read whole or not at all.
+     */
+    private static final String[] keyCache = new String[KEY_CACHE_SIZE];
+
+    /**
+     * Source of seeds of branch generators
+     */
+    private static final SecureRandom seedRandom = new SecureRandom();
+
+    /**
+     * Branch generators shared by threads. Threads are spread over them by thread id, so that they rarely
+     * contend for the same generator. Generators are not created per thread, as virtual threads live
+     * for a single request only and would pay for seeding and digest lookup each time.
+     */
+    private static final BranchGenerator[] branchGenerators = createBranchGenerators();
+
+    private SipUtils()
+    {
+
+    }
+
+    /**
+     * @return Generators, the number of generators is a power of two not less than twice the number of processors
+     */
+    private static BranchGenerator[] createBranchGenerators()
+    {
+        int count = 1;
+        while (count < Runtime.getRuntime().availableProcessors() * 2)
+            count <<= 1;
+
+        BranchGenerator[] generators = new BranchGenerator[count];
+        for (int i = 0; i < count; i++)
+            generators[i] = new BranchGenerator();
+
+        return generators;
+    }
+
+    /**
+     * @return Branch generator for the calling thread. Caller must lock it while using.
+     */
+    private static BranchGenerator getBranchGenerator()
+    {
+        return branchGenerators[(int) Thread.currentThread().getId() & (branchGenerators.length - 1)];
+    }
+
+    /**
+     * Generates branch id unique in space and time ( RFC 3261 8.1.1.7 ). Each generator mixes its own counter
+     * with random seed by a bijective function, so that ids of one generator never repeat and are not predictable,
+     * and appends random salt of the generator. No hashing or temporary strings are involved.
+     * @return Branch id value, starting with magic cookie
+     */
+    public static String generateBranchId()
+    {
+        BranchGenerator generator = getBranchGenerator();
+
+        synchronized (generator)
+        {
+            long z = generator.seed + (++generator.counter) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z = z ^ (z >>> 31);
+
+            char[] c = generator.chars;
+            int pos = BRANCH_MAGIC_COOKIE.length();
+            for (int shift = 60; shift >= 0; shift -= 4)
+                c[pos++] = toHex[(int) (z >>> shift) & 0xf];
+            for (int shift = 28; shift >= 0; shift -= 4)
+                c[pos++] = toHex[(generator.salt >>> shift) & 0xf];
+
+            return new String(c, 0, pos);
+        }
+    }
+
+    /**
+     * Computes branch id of request forwarded statelessly. Retransmissions of request get the same branch id
+     * ( RFC 3261 16.11 ). If received branch has magic cookie, id is a hash of received branch. Otherwise it is a hash
+     * of topmost Via, To and From tags, Call-ID, CSeq number and Request-URI. Values are hashed as they are,
+     * by digest instance of the generator of the calling thread.
+     * @param request Received request
+     * @return Branch id value, starting with magic cookie, or null if request has no Via header.
+     */
+    public static String generateStatelessBranchId(Request request)
+    {
+        ViaHeader viaHeader = (ViaHeader) request.getHeader(ViaHeader.NAME);
+        if (viaHeader == null)
+            return null;
+
+        BranchGenerator generator = getBranchGenerator();
+        if (generator.messageDigest == null)
+            return generateBranchId();
+
+        String branch = viaHeader.getBranch();
+
+        synchronized (generator)
+        {
+            // Previous computation may have been interrupted by exception
+            generator.messageDigest.reset();
+
+            if (branch != null && branch.startsWith(BRANCH_MAGIC_COOKIE))
+            {
+                generator.update(branch);
+            }
+            else
+            {
+                generator.update(viaHeader.getHost());
+                generator.update(viaHeader.getPort());
+                generator.update(viaHeader.getTransport());
+                generator.update(branch);
+                generator.update(((ToHeader) request.getHeader(ToHeader.NAME)).getTag());
+                generator.update(((FromHeader) request.getHeader(FromHeader.NAME)).getTag());
+                generator.update(((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId());
+                generator.update(((CSeqHeader) request.getHeader(CSeqHeader.NAME)).getSeqNumber());
+
+                URI requestURI = request.getRequestURI();
+                if (requestURI.isSipURI())
+                {
+                    SipURI sipURI = (SipURI) requestURI;
+                    generator.update(sipURI.getScheme());
+                    generator.update(sipURI.getUser());
+                    generator.update(sipURI.getHost());
+                    generator.update(sipURI.getPort());
+                }
+                else
+                    generator.update(requestURI.toString());
+            }
+
+            byte[] digest = generator.messageDigest.digest();
+
+            char[] c = generator.chars;
+            int pos = BRANCH_MAGIC_COOKIE.length();
+            for (int i = 0; i < digest.length; i++)
+            {
+                c[pos++] = toHex[(digest[i] >> 4) & 0xf];
+                c[pos++] = toHex[digest[i] & 0xf];
+            }
+
+            return new String(c, 0, pos);
+        }
+    }
+
+    /**
+     * @param b Array of bytes
+     * @return A hexadecimal string
+     */
+    public static String toHexString(byte[] b)
+    {
+        int pos = 0;
+        char[] c = new char[b.length * 2];
+
+        for (int i = 0; i < b.length; i++)
+        {
+            c[pos++] = toHex[(b[i] >> 4) & 0x0F];
+            c[pos++] = toHex[b[i] & 0x0f];
+        }
+
+        return new String(c);
+    }   
+
+    /**
+     * @param message Encoded SIP message
+     * @return SIP message as bytes, suitable for transfer
+     */
+    public static byte[] encode(String message)
+    {
+        return message.getBytes(UTF8);
+    }
+
+    /**
+     * @param message SIP message as bytes
+     * @return Encoded SIP message
+     */
+    public static String decode(byte[] message)
+    {
+        return new String(message, UTF8);
+    }
+
+    /**
+     * @param request Request
+     * @param name Header name
+     * @return Values of all headers with specified <i>name</i>, in order of appearance, or null if there are no such headers.
+     * Comma separated values of one header ( e.g. Path: &lt;sip:a&gt;,&lt;sip:b&gt; ) are returned as separate values.
+     */
+    public static Vector<String> getHeaderValues(Request request, String name)
+    {
+        ListIterator<?> headers = request.getHeaders(name);
+        if (headers == null || !headers.hasNext())
+            return null;
+
+        Vector<String> values = new Vector<String>();
+
+        while (headers.hasNext())
+        {
+            String header = headers.next().toString();
+            splitHeaderValue(header.substring(header.indexOf(':') + 1), values);
+        }
+
+        return values.isEmpty() ? null : values;
+    }
+
+    /**
+     * Splits header value on commas that are not enclosed in angle brackets or quotes.
+     * @param value Header value
+     * @param values Vector to add trimmed non-empty values to
+     */
+    private static void splitHeaderValue(String value, Vector<String> values)
+    {
+        boolean quoted = false;
+        boolean bracketed = false;
+        int start = 0;
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if (quoted)
+            {
+                if (c == '\\')
+                    i++;
+                else if (c == '"')
+                    quoted = false;
+            }
+            else if (c == '"')
+                quoted = true;
+            else if (c == '<')
+                bracketed = true;
+            else if (c == '>')
+                bracketed = false;
+            else if (c == ',' && !bracketed)
+            {
+                addHeaderValue(value.substring(start, i), values);
+                start = i + 1;
+            }
+        }
+
+        addHeaderValue(value.substring(start), values);
+    }
+
+    /**
+     * Adds trimmed <i>value</i> to <i>values</i> if it is not empty.
+     */
+    private static void addHeaderValue(String value, Vector<String> values)
+    {
+        value = value.trim();
+        if (value.length() > 0)
+            values.add(value);
+    }
+
+    /**
+     * @param request Request
+     * @param optionTag Option tag, "path" for example
+     * @return true if request contains <i>optionTag</i> in Supported header.
+     */
+    public static boolean isOptionSupported(Request request, String optionTag)
+    {
+        ListIterator<?> headers = request.getHeaders(SupportedHeader.NAME);
+
+        while (headers != null && headers.hasNext())
+        {
+            if (optionTag.equalsIgnoreCase(((SupportedHeader) headers.next()).getOptionTag()))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns address the request was received from. The address is taken from the transport
+     * ( source of the packet or peer of the connection ), never from headers, because they are
+     * controlled by the sender.
+     * @param request Incoming request
+     * @return Source address of request or null if request has not been received from network
+     * ( e.g. it has been passed by another service )
+     */
+    public static String getSourceAddress(Request request)
+    {
+        if (!(request instanceof SIPRequest))
+            return null;
+
+        Object channel = ((SIPRequest) request).getMessageChannel();
+        if (!(channel instanceof MessageChannel))
+            return null;
+
+        InetAddress address = ((MessageChannel) channel).getPeerPacketSourceAddress();
+        return address != null ? address.getHostAddress() : null;
+    }
+
+    /**
+     * If URI is the SIP URI, method returns its clone without any parameters,
+     * otherwise original URI is returned without any modifications.
+     * @param uri URI
+     * @return Canonicalized URI ( without parameters )
+     */
+    public static URI getCanonicalizedURI(URI uri)
+    {
+        if (uri != null && uri.isSipURI())
+        {
+            SipUri sipUri = (SipUri) uri.clone();
+            sipUri.clearUriParms();
+
+            return sipUri;
+        }
+        else
+            return uri;
+    }
+
+    /**
+     * @param request Original request
+     * @return The key value to use with location service database. Key is needed to find current location of subscriber specified in To header of <i>request</i>. Returns null if To header is not SIP URI like.
+     */
+    public static String getKeyToLocationService(Request request)
+    {
+        return getKeyToLocationService(request, null);
+    }
+
+    /**
+     * @param request Original request
+     * @param domain Domain replacing host part of To header URI, or null to keep the host
+     * @return The key value to use with location service database. Key is needed to find current location of subscriber specified in To header of <i>request</i>. Returns null if To header is not SIP URI like.
+     */
+    public static String getKeyToLocationService(Request request, String domain)
+    {
+        ToHeader toHeader = (ToHeader) request.getHeader(ToHeader.NAME);
+        if (toHeader != null)
+        {
+            Address address = toHeader.getAddress();
+
+            /**
+             * The To header field and the Request-URI field typically differ, as
+             * the former contains a user name.  This address-of-record MUST
+             * be a SIP URI or SIPS URI.
+             */
+            return getKeyToLocationService(address.getURI(), domain);
+        }
+
+        return null;
+    }
+
+    /**
+     * @param uri URI to make key value from.
+     * @return The key value to use with location service database. Key is needed to find current location of subscriber by <i>uri</i>. Returns null if <i>uri</i> is not SIP URI like.
+     */
+    public static String getKeyToLocationService(URI uri)
+    {
+        return getKeyToLocationService(uri, null);
+    }
+
+    /**
+     * Makes key of the form scheme:user@host directly from URI parts. Parameters, password, port and headers
+     * are not part of the key, as clearing just parameters as specified in RFC is not enough.
+     * Keys are taken from cache if possible, so that frequently used keys are neither built nor duplicated.
+     * @param uri URI to make key value from.
+     * @param domain Domain replacing host part of <i>uri</i>, or null to keep the host
+     * @return The key value to use with location service database. Key is needed to find current location of subscriber by <i>uri</i>. Returns null if <i>uri</i> is not SIP URI like.
+     */
+    public static String getKeyToLocationService(URI uri, String domain)
+    {
+        if (uri == null || !uri.isSipURI())
+            return null;
+
+        SipURI sipUri = (SipURI) uri;
+        String scheme = sipUri.getScheme();
+        String user = sipUri.getUser();
+        String host = domain != null ? domain : sipUri.getHost();
+
+        // Same hash as String.hashCode() of the key
+        int hash = hash(0, scheme);
+        hash = 31 * hash + ':';
+        if (user != null)
+        {
+            hash = hash(hash, user);
+            hash = 31 * hash + '@';
+        }
+        hash = hash(hash, host);
+
+        int index = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+        String key = keyCache[index];
+
+        if (key != null && key.hashCode() == hash && keyEquals(key, scheme, user, host))
+            return key;
+
+        StringBuilder sb = new StringBuilder(scheme.length() + host.length() + (user != null ? user.length() + 2 : 1));
+        sb.append(scheme).append(':');
+        if (user != null)
+            sb.append(user).append('@');
+        sb.append(host);
+
+        key = sb.toString();
+        keyCache[index] = key;
+        return key;
+    }
+
+    /**
+     * Continues String.hashCode() computation over <i>s</i>.
+     */
+    private static int hash(int hash, String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+            hash = 31 * hash + s.charAt(i);
+        return hash;
+    }
+
+    /**
+     * @return true if <i>key</i> equals scheme:user@host, or scheme:host if <i>user</i> is null
+     */
+    private static boolean keyEquals(String key, String scheme, String user, String host)
+    {
+        int length = scheme.length() + 1 + (user != null ? user.length() + 1 : 0) + host.length();
+        if (key.length() != length || !key.startsWith(scheme) || key.charAt(scheme.length()) != ':')
+            return false;
+
+        int offset = scheme.length() + 1;
+        if (user != null)
+        {
+            if (!key.regionMatches(offset, user, 0, user.length()) || key.charAt(offset + user.length()) != '@')
+                return false;
+            offset += user.length() + 1;
+        }
+
+        return key.regionMatches(offset, host, 0, host.length());
+    }
+
+    /**
+     * Creates and dispatches response
+     * @param responseId Response identifier
+     * @param sipProvider SipProvider object
+     * @param messageFactory MessageFactory object
+     * @param request Request object
+     * @param serverTransaction ServerTransaction object
+     * @throws java.text.ParseException
+     * @throws javax.sip.InvalidArgumentException
+     * @throws javax.sip.SipException
+     */
+    public static void sendResponse(int responseId, SipProvider sipProvider, MessageFactory messageFactory, Request request, ServerTransaction serverTransaction) throws ParseException, InvalidArgumentException, SipException
+    {
+        Response response = messageFactory.createResponse(responseId, request);
+        if (serverTransaction != null)
+            serverTransaction.sendResponse(response);
+        else
+            sipProvider.sendResponse(response);
+    }
+
+    public static void sendResponseSafe(int errorId, SipProvider sipProvider, MessageFactory messageFactory, Request request, ServerTransaction serverTransaction)
+    {
+        try
+        {
+            Response response = messageFactory.createResponse(errorId, request);
+            if (serverTransaction != null)
+                serverTransaction.sendResponse(response);
+            else
+                sipProvider.sendResponse(response);
+        }
+        catch (Exception ex)
+        {
+
+        }       
+    }
+        
+
+    /**
+     * State of branch id generation, guarded by its own lock
+     */
+    private static class BranchGenerator
+    {
+        /**
+         * Random seed mixed with counter
+         */
+        private final long seed;
+
+        /**
+         * Random salt appended to ids
+         */
+        private final int salt;
+
+        /**
+         * The number of generated ids
+         */
+        private long counter;
+
+        /**
+         * MD5 digest for stateless branch ids, null if MD5 is not available
+         */
+        private final MessageDigest messageDigest;
+
+        /**
+         * Buffer of characters to be hashed
+         */
+        private final byte[] buffer = new byte[256];
+
+        /**
+         * Buffer of branch id, starting with magic cookie
+         */
+        private final char[] chars = new char[BRANCH_MAGIC_COOKIE.length() + 32];
+
+        private BranchGenerator()
+        {
+            synchronized (seedRandom)
+            {
+                seed = seedRandom.nextLong();
+                salt = seedRandom.nextInt();
+            }
+
+            MessageDigest md;
+            try
+            {
+                md = MessageDigest.getInstance("MD5");
+            }
+            catch (NoSuchAlgorithmException ex)
+            {
+                md = null;
+            }
+            messageDigest = md;
+
+            BRANCH_MAGIC_COOKIE.getChars(0, BRANCH_MAGIC_COOKIE.length(), chars, 0);
+        }
+
+        /**
+         * Feeds characters of <i>s</i> to the digest, followed by separator. Null is fed as separator only.
+         */
+        private void update(String s)
+        {
+            if (s != null)
+            {
+                int length = s.length();
+                for (int offset = 0; offset < length; offset += buffer.length / 2)
+                {
+                    int n = Math.min(buffer.length / 2, length - offset);
+                    for (int i = 0; i < n; i++)
+                    {
+                        char ch = s.charAt(offset + i);
+                        buffer[2 * i] = (byte) (ch >> 8);
+                        buffer[2 * i + 1] = (byte) ch;
+                    }
+                    messageDigest.update(buffer, 0, 2 * n);
+                }
+            }
+
+            messageDigest.update((byte) 0);
+        }
+
+        /**
+         * Feeds <i>value</i> to the digest, followed by separator.
+         */
+        private void update(long value)
+        {
+            for (int i = 0; i < 8; i++)
+                buffer[i] = (byte) (value >>> (56 - 8 * i));
+            buffer[8] = 0;
+            messageDigest.update(buffer, 0, 9);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip;
+
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs each task on its own virtual thread, so that requests blocked on remote calls do not hold
+ * platform threads. Virtual threads are available since Java 21 and are created through reflection,
+ * so the code still builds and runs on older JVMs, where this executor is simply not created.
+ * The number of tasks running at once is limited, tasks above the limit are refused.
+ * <p>
+ * Virtual threads have no permissions when security manager is installed, so the executor
+ * cannot be used together with security manager. Services do not install it when virtual threads are enabled,
+ * and JVM must not be started with it either.
+ */
+public class VirtualThreadExecutor
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(VirtualThreadExecutor.class);
+
+    /**
+     * Virtual thread factory
+     */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * Maximum number of tasks running at once
+     */
+    private final int maxInFlight;
+
+    /**
+     * The number of tasks running at the moment
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The number of started tasks
+     */
+    private final AtomicLong started = new AtomicLong();
+
+    /**
+     * The number of refused tasks
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates executor.
+     * @param threadFactory Virtual thread factory, see createThreadFactory()
+     * @param maxInFlight Maximum number of tasks running at once
+     */
+    public VirtualThreadExecutor(ThreadFactory threadFactory, int maxInFlight)
+    {
+        this.threadFactory = threadFactory;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Creates executor configured by properties <i>prefix</i>.enabled ( no by default ) and
+     * <i>prefix</i>.max.inflight ( 10000 by default ).
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @param name Name prefix of threads
+     * @return Executor or null if it is disabled or virtual threads are not supported by JVM
+     */
+    public static VirtualThreadExecutor createFromProperties(Properties props, String prefix, String name)
+    {
+        if (!props.getProperty(prefix + ".enabled", "no").trim().equalsIgnoreCase("yes"))
+            return null;
+
+        ThreadFactory threadFactory = createThreadFactory(name);
+        if (threadFactory == null)
+        {
+            log.warn("Virtual threads are not supported by this JVM ( Java 21 or newer is required ). Platform threads will be used.");
+            return null;
+        }
+
+        int maxInFlight = 10000;
+
+        try
+        {
+            maxInFlight = Integer.parseInt(props.getProperty(prefix + ".max.inflight", "10000").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        if (log.isInfoEnabled())
+            log.info("Requests are processed by virtual threads, at most " + maxInFlight + " at once.");
+
+        return new VirtualThreadExecutor(threadFactory, maxInFlight);
+    }
+
+    /**
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return true if virtual threads are enabled by property <i>prefix</i>.enabled and are supported by JVM
+     */
+    public static boolean isEnabled(Properties props, String prefix)
+    {
+        return props.getProperty(prefix + ".enabled", "no").trim().equalsIgnoreCase("yes") && createThreadFactory("Probe") != null;
+    }
+
+    /**
+     * Creates factory of virtual threads named <i>name</i>-1, <i>name</i>-2 and so on.
+     * @param name Name prefix of threads
+     * @return Thread factory or null if virtual threads are not supported by JVM
+     */
+    public static ThreadFactory createThreadFactory(String name)
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+            Method factoryMethod = builderClass.getMethod("factory");
+
+            builder = nameMethod.invoke(builder, name + "-", 1L);
+            return (ThreadFactory) factoryMethod.invoke(builder);
+        }
+        catch (Exception ex)
+        {
+            if (log.isDebugEnabled())
+                log.debug("Virtual threads are not available: " + ex);
+
+            return null;
+        }
+    }
+
+    /**
+     * Starts task on a new virtual thread.
+     * @param task Task to execute
+     * @return false if too many tasks are running and task was not started.
+     */
+    public boolean execute(final Runnable task)
+    {
+        if (inFlight.incrementAndGet() > maxInFlight)
+        {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        started.incrementAndGet();
+
+        threadFactory.newThread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (Throwable ex)
+                {
+                    log.error("Request processing raised exception: " + ex.getMessage(), ex);
+                }
+                finally
+                {
+                    inFlight.decrementAndGet();
+                }
+            }
+        }).start();
+
+        return true;
+    }
+
+    /**
+     * @return The number of tasks running at the moment
+     */
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * @return Statistics in one line
+     */
+    public String getStatistics()
+    {
+        return "in flight " + inFlight.get() + " ( max " + maxInFlight + " ), started " + started.get() + ", rejected " + rejected.get();
+    }
+}
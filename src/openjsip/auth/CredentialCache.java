@@ -0,0 +1,227 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.auth;
+
+import openjsip.remote.locationservice.Credentials;
+import openjsip.remote.locationservice.CredentialsListener;
+import openjsip.remote.locationservice.LocationServiceInterface;
+import openjsip.remote.locationservice.UserNotFoundException;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of subscribers' credentials (username and precomputed HA1) shared by authentication code.
+ * Cached entries live for limited time and are dropped as soon as Location Service
+ * reports that credentials of subscriber have changed.
+ */
+public class CredentialCache extends UnicastRemoteObject implements CredentialsListener
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(CredentialCache.class);
+
+    /**
+     * Cached credentials. Key is realm and key to location service.
+     */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Time to live of cached entry in milliseconds
+     */
+    private final long ttl;
+
+    /**
+     * Maximum number of cached entries
+     */
+    private final int maxEntries;
+
+    /**
+     * Creates credentials cache.
+     * @param ttl Time to live of cached entries in seconds. Zero disables caching.
+     * @param maxEntries Maximum number of cached entries
+     * @throws RemoteException If cache cannot be exported to receive Location Service notifications
+     */
+    public CredentialCache(int ttl, int maxEntries) throws RemoteException
+    {
+        this.ttl = Math.max(0, ttl) * 1000L;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Creates credentials cache configured by properties <i>prefix</i>.ttl (seconds, 300 by default)
+     * and <i>prefix</i>.size (10000 entries by default).
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return Credentials cache
+     * @throws RemoteException If cache cannot be exported to receive Location Service notifications
+     */
+    public static CredentialCache createFromProperties(Properties props, String prefix) throws RemoteException
+    {
+        int ttl = 300;
+        int maxEntries = 10000;
+
+        try
+        {
+            ttl = Integer.parseInt(props.getProperty(prefix + ".ttl", "300").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            maxEntries = Integer.parseInt(props.getProperty(prefix + ".size", "10000").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        if (log.isInfoEnabled())
+            log.info("Credentials cache: ttl " + ttl + " seconds, max " + maxEntries + " entries.");
+
+        return new CredentialCache(ttl, maxEntries);
+    }
+
+    /**
+     * Subscribes this cache for credentials change notifications of <i>locationService</i>.
+     * Entries cached before are dropped, as notifications might have been missed.
+     * @param locationService Location Service
+     */
+    public void attach(LocationServiceInterface locationService)
+    {
+        entries.clear();
+
+        try
+        {
+            locationService.addCredentialsListener(this);
+        }
+        catch (RemoteException ex)
+        {
+            log.warn("Cannot subscribe for credentials change notifications. Cached credentials will expire by time only. " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns credentials of subscriber within <i>realm</i>. Location Service is contacted only if credentials are not cached yet or expired.
+     * @param key Key to location service
+     * @param realm Realm
+     * @param locationService Location Service to retreive credentials from
+     * @return Credentials of subscriber
+     * @throws UserNotFoundException If the subscriber specified by <i>key</i> cannot be found
+     * @throws RemoteException Location Service connection troubles
+     */
+    public Credentials getCredentials(String key, String realm, LocationServiceInterface locationService) throws UserNotFoundException, RemoteException
+    {
+        String entryKey = realm + ' ' + key;
+        long now = System.currentTimeMillis();
+
+        Entry entry = entries.get(entryKey);
+        if (entry != null && entry.expiresAt > now)
+            return entry.credentials;
+
+        Credentials credentials = locationService.getCredentials(key, realm);
+
+        if (ttl > 0)
+        {
+            if (entries.size() >= maxEntries)
+                purge(now);
+
+            entries.put(entryKey, new Entry(key, credentials, now + ttl));
+        }
+
+        return credentials;
+    }
+
+    /**
+     * Removes expired entries. If cache is still full, it is cleared entirely.
+     * @param now Current time
+     */
+    private void purge(long now)
+    {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().expiresAt <= now)
+                it.remove();
+        }
+
+        if (entries.size() >= maxEntries)
+            entries.clear();
+    }
+
+    /**
+     * @see openjsip.remote.locationservice.CredentialsListener
+     */
+    public void credentialsChanged(String key) throws RemoteException
+    {
+        if (key == null)
+        {
+            entries.clear();
+        }
+        else
+        {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext())
+            {
+                if (it.next().key.equals(key))
+                    it.remove();
+            }
+        }
+
+        if (log.isDebugEnabled())
+            log.debug("Cached credentials invalidated ( " + (key != null ? key : "all subscribers") + " )");
+    }
+
+    /**
+     * @return The number of cached entries
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Cache entry
+     */
+    private static class Entry
+    {
+        private final String key;
+        private final Credentials credentials;
+        private final long expiresAt;
+
+        private Entry(String key, Credentials credentials, long expiresAt)
+        {
+            this.key = key;
+            this.credentials = credentials;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,589 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.proxy;
+
+import openjsip.remote.locationservice.Binding;
+
+import javax.sip.InvalidArgumentException;
+import javax.sip.ServerTransaction;
+import javax.sip.SipException;
+import javax.sip.SipProvider;
+import javax.sip.address.URI;
+import javax.sip.message.Request;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Forwards request to the target set ( RFC 3261 16.6 ).
+ * <p>
+ * In parallel mode all targets are tried at once. In sequential mode targets are grouped by q-value,
+ * groups are tried in order of decreasing q-value and the targets of one group are tried in parallel.
+ * The next group is tried when all branches of the current group have completed without 2xx or 6xx response,
+ * or when the group timeout has passed, in which case the branches of the current group are cancelled.
+ * <p>
+ * Branches of a group are sent by several threads, so that the last target does not wait for the others.
+ * The same threads handle group timeouts. A thread holding fork state never waits for sending tasks
+ * which have not started yet, it runs them itself, and sending threads always send inline.
+ */
+public class ForkingEngine
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(ForkingEngine.class);
+
+    public static final int PARALLEL_MODE = 0;
+    public static final int SEQUENTIAL_MODE = 1;
+
+    /**
+     * Proxy
+     */
+    private final Proxy proxy;
+
+    /**
+     * Timer wheel for group timeouts
+     */
+    private final TimerWheel timerWheel;
+
+    /**
+     * Forking mode
+     */
+    private final int mode;
+
+    /**
+     * Time in milliseconds given to each group in sequential mode, zero means no limit.
+     */
+    private final long groupTimeout;
+
+    /**
+     * Threads sending branches and handling group timeouts, null if neither is needed.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Whether branches of a group are sent by several threads
+     */
+    private final boolean parallelSending;
+
+    /**
+     * Orders targets by decreasing q-value. Contacts without q-value are treated as having q=1.0.
+     */
+    private static final Comparator<Binding> Q_ORDER = new Comparator<Binding>()
+    {
+        public int compare(Binding b1, Binding b2)
+        {
+            return Float.compare(getQValue(b2), getQValue(b1));
+        }
+    };
+
+    /**
+     * Creates forking engine.
+     * @param proxy Proxy
+     * @param timerWheel Timer wheel for group timeouts
+     * @param mode PARALLEL_MODE or SEQUENTIAL_MODE
+     * @param groupTimeout Time in milliseconds given to each group in sequential mode, zero means no limit.
+     * @param threads The number of threads sending branches, 0 or 1 if all branches are sent by caller thread.
+     * Group timeouts are then handled by a single thread.
+     */
+    public ForkingEngine(Proxy proxy, TimerWheel timerWheel, int mode, long groupTimeout, int threads)
+    {
+        this.proxy = proxy;
+        this.timerWheel = timerWheel;
+        this.mode = mode;
+        this.groupTimeout = Math.max(0, groupTimeout);
+
+        this.parallelSending = threads > 1;
+
+        // Group timeouts are handled by a separate thread even if branches are sent by caller thread,
+        // as timer wheel thread must not be blocked by sending requests.
+        if (threads > 1 || (mode == SEQUENTIAL_MODE && this.groupTimeout > 0))
+        {
+            executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+            {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new SendingThread(r, "ForkingEngine-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        else
+            executor = null;
+    }
+
+    /**
+     * Creates forking engine configured by properties <i>prefix</i>.mode ( parallel or sequential, parallel by default ),
+     * <i>prefix</i>.group.timeout ( seconds, 20 by default ) and <i>prefix</i>.threads ( 4 by default ).
+     * @param proxy Proxy
+     * @param timerWheel Timer wheel for group timeouts
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return Forking engine
+     */
+    public static ForkingEngine createFromProperties(Proxy proxy, TimerWheel timerWheel, Properties props, String prefix)
+    {
+        int mode = props.getProperty(prefix + ".mode", "parallel").trim().equalsIgnoreCase("sequential") ? SEQUENTIAL_MODE : PARALLEL_MODE;
+        int groupTimeout = 20;
+        int threads = 4;
+
+        try
+        {
+            groupTimeout = Integer.parseInt(props.getProperty(prefix + ".group.timeout", "20").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            threads = Integer.parseInt(props.getProperty(prefix + ".threads", "4").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        if (log.isInfoEnabled())
+            log.info("Forking mode: " + (mode == SEQUENTIAL_MODE ? "sequential, group timeout " + groupTimeout + " seconds" : "parallel") + ".");
+
+        return new ForkingEngine(proxy, timerWheel, mode, groupTimeout * 1000L, threads);
+    }
+
+    /**
+     * Forwards request statefully to the target set.
+     * @param targets Target set
+     * @param request Request to forward
+     * @param sipProvider SipProvider object
+     * @param serverTransaction Server transaction of the request
+     * @throws InvalidArgumentException
+     * @throws ParseException
+     * @throws SipException If request cannot be forwarded to any target
+     */
+    public void fork(Vector<Binding> targets, Request request, SipProvider sipProvider, ServerTransaction serverTransaction) throws InvalidArgumentException, ParseException, SipException
+    {
+        TransactionsMapping transactionsMapping = (TransactionsMapping) serverTransaction.getApplicationData();
+        if (transactionsMapping == null)
+        {
+            transactionsMapping = new TransactionsMapping(serverTransaction, sipProvider);
+            serverTransaction.setApplicationData(transactionsMapping);
+        }
+
+        Fork fork = new Fork(request, sipProvider, serverTransaction, groupTargets(targets));
+        transactionsMapping.setFork(fork);
+
+        Exception exception;
+
+        synchronized (fork)
+        {
+            exception = forkNextGroup(fork, transactionsMapping);
+        }
+
+        // CANCEL may have arrived while branches were being created
+        if (transactionsMapping.isCancelled())
+        {
+            fork.stop();
+            proxy.cancelBranches(transactionsMapping);
+        }
+
+        if (exception != null && !transactionsMapping.hasClientTransactions())
+        {
+            if (exception instanceof SipException)
+                throw (SipException) exception;
+            else if (exception instanceof ParseException)
+                throw (ParseException) exception;
+            else if (exception instanceof InvalidArgumentException)
+                throw (InvalidArgumentException) exception;
+            else
+                throw new SipException(exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Checks whether all branches have completed. If so, and there are targets not tried yet, the next group is forked.
+     * @param transactionsMapping Transactions mapping
+     * @return true if all branches have completed and there is nothing more to try
+     */
+    public boolean isCompleted(TransactionsMapping transactionsMapping)
+    {
+        Fork fork = transactionsMapping.getFork();
+        if (fork == null)
+            return transactionsMapping.areClientTransactionsCompleted();
+
+        synchronized (fork)
+        {
+            if (!transactionsMapping.areClientTransactionsCompleted())
+                return false;
+
+            if (fork.isStopped() || fork.groups.isEmpty())
+                return true;
+
+            forkNextGroup(fork, transactionsMapping);
+
+            return !fork.hasBranches;
+        }
+    }
+
+    /**
+     * Stops trying new targets.
+     * @param transactionsMapping Transactions mapping
+     */
+    public void stop(TransactionsMapping transactionsMapping)
+    {
+        Fork fork = transactionsMapping.getFork();
+        if (fork != null)
+            fork.stop();
+    }
+
+    /**
+     * Stops sending threads.
+     */
+    public void shutdown()
+    {
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * Splits target set into groups.
+     * @param targets Target set
+     * @return Groups in the order they should be tried
+     */
+    private LinkedList<Vector<Binding>> groupTargets(Vector<Binding> targets)
+    {
+        Vector<Binding> sorted = new Vector<Binding>(targets);
+        Collections.sort(sorted, Q_ORDER);
+
+        LinkedList<Vector<Binding>> groups = new LinkedList<Vector<Binding>>();
+
+        if (mode == PARALLEL_MODE)
+        {
+            groups.add(sorted);
+            return groups;
+        }
+
+        Vector<Binding> group = null;
+        for (Binding binding : sorted)
+        {
+            if (group == null || getQValue(group.firstElement()) != getQValue(binding))
+            {
+                group = new Vector<Binding>();
+                groups.add(group);
+            }
+
+            group.add(binding);
+        }
+
+        return groups;
+    }
+
+    /**
+     * @param binding Binding
+     * @return q-value of contact, 1.0 if not specified.
+     */
+    private static float getQValue(Binding binding)
+    {
+        float q = binding.getContactHeader().getQValue();
+        return q < 0 ? 1.0f : q;
+    }
+
+    /**
+     * Forks the next group which has at least one target the request could be sent to.
+     * Must be called with <i>fork</i> locked.
+     * @param fork Fork state
+     * @param transactionsMapping Transactions mapping
+     * @return The first exception raised while sending branches, or null.
+     */
+    private Exception forkNextGroup(final Fork fork, final TransactionsMapping transactionsMapping)
+    {
+        // Sending thread must not wait for tasks queued behind itself
+        boolean inline = Thread.currentThread() instanceof SendingThread;
+
+        Exception firstException = null;
+        fork.hasBranches = false;
+
+        if (fork.timeout != null)
+            fork.timeout.cancel();
+
+        while (!fork.hasBranches && !fork.isStopped() && !fork.groups.isEmpty())
+        {
+            Vector<Binding> group = fork.groups.removeFirst();
+            fork.groupIndex++;
+
+            Exception exception = forkGroup(fork, group, inline);
+            if (firstException == null)
+                firstException = exception;
+        }
+
+        if (fork.hasBranches && groupTimeout > 0 && !fork.groups.isEmpty())
+        {
+            final int groupIndex = fork.groupIndex;
+
+            fork.timeout = timerWheel.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    Runnable task = new Runnable()
+                    {
+                        public void run()
+                        {
+                            groupTimedOut(fork, transactionsMapping, groupIndex);
+                        }
+                    };
+
+                    // Timer wheel thread must not be kept busy by sending requests
+                    try
+                    {
+                        executor.execute(task);
+                    }
+                    catch (RejectedExecutionException ex)
+                    {
+                        // Forking engine is shut down
+                    }
+                }
+            }, groupTimeout);
+        }
+
+        return firstException;
+    }
+
+    /**
+     * Sends request to all targets of group.
+     * @param fork Fork state
+     * @param group Targets
+     * @param inline If true, all branches are sent by calling thread
+     * @return The first exception raised while sending branches, or null.
+     */
+    private Exception forkGroup(final Fork fork, final Vector<Binding> group, boolean inline)
+    {
+        final Exception[] exceptions = new Exception[group.size()];
+
+        if (!parallelSending || inline || group.size() == 1)
+        {
+            for (int i = 0; i < group.size(); i++)
+                exceptions[i] = forwardRequest(fork, group.get(i));
+        }
+        else
+        {
+            final CountDownLatch latch = new CountDownLatch(group.size() - 1);
+            Runnable[] tasks = new Runnable[group.size()];
+
+            for (int i = 1; i < group.size(); i++)
+            {
+                final int index = i;
+                Runnable task = new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            exceptions[index] = forwardRequest(fork, group.get(index));
+                        }
+                        finally
+                        {
+                            latch.countDown();
+                        }
+                    }
+                };
+
+                try
+                {
+                    executor.execute(task);
+                    tasks[i] = task;
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    task.run();
+                }
+            }
+
+            exceptions[0] = forwardRequest(fork, group.get(0));
+
+            // Fork is locked, so tasks not started yet are run here rather than waited for:
+            // sending threads may be blocked waiting for this or another fork.
+            for (int i = 1; i < tasks.length; i++)
+            {
+                if (tasks[i] != null && executor.remove(tasks[i]))
+                    tasks[i].run();
+            }
+
+            try
+            {
+                latch.await();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Exception firstException = null;
+        for (Exception exception : exceptions)
+        {
+            if (exception == null)
+                fork.hasBranches = true;
+            else if (firstException == null)
+                firstException = exception;
+        }
+
+        return firstException;
+    }
+
+    /**
+     * Forwards request to a single target.
+     * @param fork Fork state
+     * @param binding Target
+     * @return Exception raised, or null if request has been sent.
+     */
+    private Exception forwardRequest(Fork fork, Binding binding)
+    {
+        URI targetURI = binding.getContactHeader().getAddress().getURI();
+
+        try
+        {
+            proxy.forwardRequest(targetURI, binding.getPath(), fork.request, fork.sipProvider, fork.serverTransaction, true);
+            return null;
+        }
+        catch (Exception ex)
+        {
+            if (log.isDebugEnabled())
+                log.debug("Cannot forward request to " + targetURI + ": " + ex.getMessage());
+
+            return ex;
+        }
+    }
+
+    /**
+     * Cancels branches of the group that has run out of time and forks the next group.
+     * @param fork Fork state
+     * @param transactionsMapping Transactions mapping
+     * @param groupIndex Index of the group that has run out of time
+     */
+    private void groupTimedOut(Fork fork, TransactionsMapping transactionsMapping, int groupIndex)
+    {
+        synchronized (fork)
+        {
+            if (fork.isStopped() || fork.groupIndex != groupIndex)
+                return;
+
+            if (log.isDebugEnabled())
+                log.debug("Forking group #" + groupIndex + " timed out. Trying next targets.");
+
+            try
+            {
+                proxy.cancelBranches(transactionsMapping);
+            }
+            catch (SipException ex)
+            {
+                if (log.isDebugEnabled())
+                    log.debug("Cannot cancel branches: " + ex.getMessage());
+            }
+
+            forkNextGroup(fork, transactionsMapping);
+        }
+
+        // If no more branches could be created, the best response may be sent now
+        proxy.checkResponseContext(transactionsMapping);
+    }
+
+    /**
+     * Thread of forking engine. Branches forked by it are sent inline.
+     */
+    private static class SendingThread extends Thread
+    {
+        public SendingThread(Runnable target, String name)
+        {
+            super(target, name);
+        }
+    }
+
+    /**
+     * State of forking of a single request.
+     */
+    public static class Fork
+    {
+        private final Request request;
+        private final SipProvider sipProvider;
+        private final ServerTransaction serverTransaction;
+
+        /**
+         * Groups not tried yet
+         */
+        private final LinkedList<Vector<Binding>> groups;
+
+        /**
+         * Index of current group, starting from 1
+         */
+        private int groupIndex;
+
+        /**
+         * Whether the current group has at least one branch sent
+         */
+        private boolean hasBranches;
+
+        /**
+         * Timeout of current group
+         */
+        private volatile TimerWheel.Timeout timeout;
+
+        private volatile boolean stopped;
+
+        private Fork(Request request, SipProvider sipProvider, ServerTransaction serverTransaction, LinkedList<Vector<Binding>> groups)
+        {
+            this.request = request;
+            this.sipProvider = sipProvider;
+            this.serverTransaction = serverTransaction;
+            this.groups = groups;
+        }
+
+        /**
+         * Stops trying new targets.
+         */
+        private void stop()
+        {
+            stopped = true;
+
+            TimerWheel.Timeout current = timeout;
+            if (current != null)
+                current.cancel();
+        }
+
+        private boolean isStopped()
+        {
+            return stopped;
+        }
+    }
+}
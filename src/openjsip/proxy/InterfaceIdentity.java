@@ -0,0 +1,193 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.proxy;
+
+import javax.sip.InvalidArgumentException;
+import javax.sip.ListeningPoint;
+import javax.sip.SipProvider;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.address.URI;
+import javax.sip.header.Header;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.RecordRouteHeader;
+import javax.sip.header.ViaHeader;
+import java.text.ParseException;
+
+import openjsip.SipUtils;
+
+/**
+ * Immutable identity of proxy interface ( SipProvider ). Own URIs and headers which depend
+ * only on the interface are built once, forwarded requests get their clones.
+ */
+public class InterfaceIdentity
+{
+    /**
+     * Interface
+     */
+    private final SipProvider sipProvider;
+
+    /**
+     * IP address of interface
+     */
+    private final String ipAddress;
+
+    /**
+     * FQDN of interface
+     */
+    private final String hostname;
+
+    /**
+     * Port of the first listening point
+     */
+    private final int port;
+
+    /**
+     * Own URI with IP address, sip:address:port
+     */
+    private final SipURI addressURI;
+
+    /**
+     * Own URI with hostname, sip:hostname:port
+     */
+    private final SipURI hostnameURI;
+
+    /**
+     * Record-Route header of this proxy, with lr parameter
+     */
+    private final RecordRouteHeader recordRouteHeader;
+
+    /**
+     * Path header ( RFC 3327 ) of this proxy, with lr parameter
+     */
+    private final Header pathHeader;
+
+    /**
+     * Via header of this proxy without branch
+     */
+    private final ViaHeader viaHeader;
+
+    /**
+     * Creates identity of interface. Interface must already have listening points.
+     * @param sipProvider Interface
+     * @param ipAddress IP address of interface
+     * @param hostname FQDN of interface
+     * @param addressFactory Address factory
+     * @param headerFactory Header factory
+     * @throws ParseException
+     * @throws InvalidArgumentException
+     */
+    public InterfaceIdentity(SipProvider sipProvider, String ipAddress, String hostname, AddressFactory addressFactory, HeaderFactory headerFactory) throws ParseException, InvalidArgumentException
+    {
+        this.sipProvider = sipProvider;
+        this.ipAddress = ipAddress;
+        this.hostname = hostname;
+
+        ListeningPoint lp = sipProvider.getListeningPoints()[0];
+        port = lp.getPort();
+
+        addressURI = addressFactory.createSipURI(null, ipAddress);
+        addressURI.setPort(port);
+
+        hostnameURI = addressFactory.createSipURI(null, hostname);
+        hostnameURI.setPort(port);
+
+        recordRouteHeader = headerFactory.createRecordRouteHeader(addressFactory.createAddress(null, (URI) hostnameURI.clone()));
+        // lr parameter to add. This proxy is a Loose Router.
+        recordRouteHeader.setParameter("lr", null);
+
+        pathHeader = headerFactory.createHeader(SipUtils.PATH_HEADER, "<" + hostnameURI + ";lr>");
+
+        /**
+         * @todo fix transport
+         */
+        viaHeader = headerFactory.createViaHeader(hostname, port, lp.getTransport(), null);
+    }
+
+    /**
+     * @return Interface
+     */
+    public SipProvider getSipProvider()
+    {
+        return sipProvider;
+    }
+
+    /**
+     * @return IP address of interface
+     */
+    public String getIPAddress()
+    {
+        return ipAddress;
+    }
+
+    /**
+     * @return FQDN of interface
+     */
+    public String getHostname()
+    {
+        return hostname;
+    }
+
+    /**
+     * @return Port of the first listening point of interface
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * Returns whether <i>uri</i> is the URI of this interface in address or hostname form, as put by strict routers to Request-URI.
+     * @param uri URI
+     * @return true if <i>uri</i> equals sip:address:port or sip:hostname:port
+     */
+    public boolean isOwnURI(URI uri)
+    {
+        return uri.equals(addressURI) || uri.equals(hostnameURI);
+    }
+
+    /**
+     * @return New Record-Route header pointing to this interface
+     */
+    public RecordRouteHeader createRecordRouteHeader()
+    {
+        return (RecordRouteHeader) recordRouteHeader.clone();
+    }
+
+    /**
+     * @return New Path header pointing to this interface
+     */
+    public Header createPathHeader()
+    {
+        return (Header) pathHeader.clone();
+    }
+
+    /**
+     * @param branchId Branch parameter
+     * @return New Via header of this interface
+     * @throws ParseException If branch is invalid
+     */
+    public ViaHeader createViaHeader(String branchId) throws ParseException
+    {
+        ViaHeader via = (ViaHeader) viaHeader.clone();
+        via.setBranch(branchId);
+        return via;
+    }
+}
@@ -0,0 +1,420 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.proxy;
+
+import openjsip.snmp.SNMPAssistant;
+import gov.nist.javax.sip.header.ParametersHeader;
+
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Response;
+import java.text.ParseException;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Admission control for new requests.
+ * <p>
+ * Controller measures the average time requests spend in the proxy and the number of requests
+ * being processed at once. Every interval it compares them with configured targets and raises or lowers
+ * the percentage of new out-of-dialog requests to be rejected ( loss-based algorithm of RFC 7339 ).
+ * Rejecting a part of new requests early keeps the rest served in time, so that goodput stays near capacity
+ * instead of collapsing when all transactions time out.
+ * <p>
+ * Upstream elements that indicate overload control support by <i>oc</i> Via parameter are told the
+ * current reduction in responses, so that they can throttle requests before they reach the proxy.
+ */
+public class OverloadController
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(OverloadController.class);
+
+    /**
+     * Specific trap code sent when overload is detected
+     */
+    public static final int TRAP_OVERLOAD_STARTED = 1;
+
+    /**
+     * Specific trap code sent when overload is over
+     */
+    public static final int TRAP_OVERLOAD_ENDED = 2;
+
+    /**
+     * SNMP assistant, may be null
+     */
+    private final SNMPAssistant snmpAssistant;
+
+    /**
+     * Average request processing time in milliseconds above which proxy is considered overloaded
+     */
+    private final long targetDelay;
+
+    /**
+     * The number of requests processed at once above which proxy is considered overloaded
+     */
+    private final int maxInFlight;
+
+    /**
+     * Evaluation interval in milliseconds
+     */
+    private final long interval;
+
+    /**
+     * Percents added to reduction in overload
+     */
+    private final int stepUp;
+
+    /**
+     * Percents removed from reduction when there is no overload
+     */
+    private final int stepDown;
+
+    /**
+     * Retry-After value in seconds for rejected requests
+     */
+    private final int retryAfter;
+
+    /**
+     * Validity of overload feedback in milliseconds ( oc-validity )
+     */
+    private final long ocValidity;
+
+    /**
+     * The percentage of new requests to reject
+     */
+    private volatile int reduction;
+
+    /**
+     * Sequence number of overload feedback ( oc-seq )
+     */
+    private volatile String ocSeq = "0.000";
+
+    /**
+     * Sends SNMP traps, so that request threads do not wait for SNMP agent
+     */
+    private final ThreadPoolExecutor trapSender = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+    {
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "OverloadTrapSender");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Time when reduction was last non-zero
+     */
+    private volatile long lastOverloadTime;
+
+    /**
+     * Time of the last evaluation
+     */
+    private final AtomicLong lastEvaluation;
+
+    /**
+     * The number of requests being processed
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The highest number of requests processed at once since the last evaluation
+     */
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    /**
+     * Total processing time of requests since the last evaluation
+     */
+    private final AtomicLong delaySum = new AtomicLong();
+
+    /**
+     * The number of processed requests since the last evaluation
+     */
+    private final AtomicLong delayCount = new AtomicLong();
+
+    /**
+     * Counter of new requests used to spread rejections evenly
+     */
+    private final AtomicInteger admissions = new AtomicInteger();
+
+    /**
+     * Creates overload controller.
+     * @param snmpAssistant SNMP assistant to publish reduction and send traps, may be null
+     * @param targetDelay Average request processing time in milliseconds above which proxy is considered overloaded
+     * @param maxInFlight The number of requests processed at once above which proxy is considered overloaded
+     * @param interval Evaluation interval in milliseconds
+     * @param stepUp Percents added to reduction in overload
+     * @param stepDown Percents removed from reduction when there is no overload
+     * @param retryAfter Retry-After value in seconds for rejected requests
+     * @param ocValidity Validity of overload feedback in milliseconds
+     */
+    public OverloadController(SNMPAssistant snmpAssistant, long targetDelay, int maxInFlight, long interval, int stepUp, int stepDown, int retryAfter, long ocValidity)
+    {
+        this.snmpAssistant = snmpAssistant;
+        this.targetDelay = Math.max(1, targetDelay);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.interval = Math.max(1, interval);
+        this.stepUp = Math.max(1, stepUp);
+        this.stepDown = Math.max(1, stepDown);
+        this.retryAfter = Math.max(1, retryAfter);
+        this.ocValidity = Math.max(0, ocValidity);
+        this.lastEvaluation = new AtomicLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Creates overload controller configured by properties <i>prefix</i>.enabled ( yes by default ),
+     * <i>prefix</i>.target.delay ( milliseconds, 200 by default ), <i>prefix</i>.max.inflight ( 200 by default ),
+     * <i>prefix</i>.interval ( milliseconds, 1000 by default ), <i>prefix</i>.step.up ( 10 by default ),
+     * <i>prefix</i>.step.down ( 5 by default ), <i>prefix</i>.retry.after ( seconds, 5 by default )
+     * and <i>prefix</i>.oc.validity ( milliseconds, 5000 by default ).
+     * @param snmpAssistant SNMP assistant, may be null
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return Overload controller or null if overload control is disabled
+     */
+    public static OverloadController createFromProperties(SNMPAssistant snmpAssistant, Properties props, String prefix)
+    {
+        if (!props.getProperty(prefix + ".enabled", "yes").trim().equalsIgnoreCase("yes"))
+        {
+            if (log.isInfoEnabled())
+                log.info("Overload control disabled.");
+
+            return null;
+        }
+
+        int targetDelay = getIntProperty(props, prefix + ".target.delay", 200);
+        int maxInFlight = getIntProperty(props, prefix + ".max.inflight", 200);
+        int interval = getIntProperty(props, prefix + ".interval", 1000);
+        int stepUp = getIntProperty(props, prefix + ".step.up", 10);
+        int stepDown = getIntProperty(props, prefix + ".step.down", 5);
+        int retryAfter = getIntProperty(props, prefix + ".retry.after", 5);
+        int ocValidity = getIntProperty(props, prefix + ".oc.validity", 5000);
+
+        if (log.isInfoEnabled())
+            log.info("Overload control enabled: target delay " + targetDelay + " ms, max " + maxInFlight + " requests in progress.");
+
+        return new OverloadController(snmpAssistant, targetDelay, maxInFlight, interval, stepUp, stepDown, retryAfter, ocValidity);
+    }
+
+    private static int getIntProperty(Properties props, String name, int defaultValue)
+    {
+        try
+        {
+            return Integer.parseInt(props.getProperty(name, Integer.toString(defaultValue)).trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Decides whether request may be processed. Only new out-of-dialog requests are rejected,
+     * ACK and CANCEL are always admitted. To tag alone is not trusted: in-dialog request
+     * is admitted only if it is routed by the route set recorded by this proxy.
+     * @param context Context of incoming request
+     * @return false if request is to be rejected with 503 (Service Unavailable)
+     */
+    public boolean admit(RequestContext context)
+    {
+        long now = System.currentTimeMillis();
+        long last = lastEvaluation.get();
+        if (now - last >= interval && lastEvaluation.compareAndSet(last, now))
+            evaluate(now, now - last);
+
+        int currentReduction = reduction;
+        if (currentReduction == 0)
+            return true;
+
+        int method = context.getMethod();
+        if (method == RequestContext.ACK || method == RequestContext.CANCEL || (context.isInDialog() && context.isRoutedHere()))
+            return true;
+
+        // 37 is coprime with 100, so rejected requests are spread over each hundred.
+        // Product is computed in long, as it would overflow int once counter grows large.
+        int slot = (int) (((admissions.getAndIncrement() & Integer.MAX_VALUE) * 37L) % 100);
+        return slot >= currentReduction;
+    }
+
+    /**
+     * Must be called when processing of admitted request begins.
+     * @return Start time to be passed to <i>requestFinished()</i>
+     */
+    public long requestStarted()
+    {
+        int current = inFlight.incrementAndGet();
+
+        int peak = peakInFlight.get();
+        while (current > peak && !peakInFlight.compareAndSet(peak, current))
+            peak = peakInFlight.get();
+
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Must be called when processing of admitted request ends.
+     * @param startTime Value returned by <i>requestStarted()</i>
+     */
+    public void requestFinished(long startTime)
+    {
+        inFlight.decrementAndGet();
+        delaySum.addAndGet(System.currentTimeMillis() - startTime);
+        delayCount.incrementAndGet();
+    }
+
+    /**
+     * Recalculates reduction.
+     * @param now Current time
+     * @param elapsed Time passed since the last evaluation
+     */
+    private void evaluate(long now, long elapsed)
+    {
+        long count = delayCount.getAndSet(0);
+        long sum = delaySum.getAndSet(0);
+        int peak = peakInFlight.getAndSet(inFlight.get());
+
+        long averageDelay = count > 0 ? sum / count : 0;
+        boolean overloaded = averageDelay > targetDelay || peak > maxInFlight;
+
+        int oldReduction = reduction;
+        // Evaluation happens only when requests arrive, so after a pause reduction is lowered for each interval passed
+        long intervals = Math.max(1, elapsed / interval);
+        int newReduction = overloaded ? Math.min(100, oldReduction + stepUp) : (int) Math.max(0, oldReduction - stepDown * intervals);
+
+        if (newReduction != 0)
+            lastOverloadTime = now;
+
+        if (newReduction == oldReduction)
+            return;
+
+        reduction = newReduction;
+        ocSeq = (now / 1000) + "." + Long.toString(1000 + now % 1000).substring(1);
+
+        if (snmpAssistant != null)
+            snmpAssistant.setSnmpInteger(Proxy.SNMP_OID_OVERLOAD_REDUCTION, newReduction);
+
+        if (oldReduction == 0)
+        {
+            if (log.isInfoEnabled())
+                log.info("Overload detected: average delay " + averageDelay + " ms, " + peak + " requests in progress. Rejecting " + newReduction + "% of new requests.");
+
+            sendTrap(TRAP_OVERLOAD_STARTED);
+        }
+        else if (newReduction == 0)
+        {
+            if (log.isInfoEnabled())
+                log.info("Overload is over.");
+
+            sendTrap(TRAP_OVERLOAD_ENDED);
+        }
+        else if (log.isDebugEnabled())
+        {
+            log.debug("Average delay " + averageDelay + " ms, " + peak + " requests in progress. Rejecting " + newReduction + "% of new requests.");
+        }
+    }
+
+    /**
+     * Sends SNMP trap in background.
+     * @param specificTrap Specific trap code
+     */
+    private void sendTrap(final int specificTrap)
+    {
+        if (snmpAssistant == null)
+            return;
+
+        trapSender.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    snmpAssistant.sendTrap(Proxy.SNMP_TRAP_OID, specificTrap, Proxy.SNMP_OID_OVERLOAD_REDUCTION);
+                }
+                catch (Exception ex)
+                {
+                    log.error("Cannot send SNMP trap: " + ex.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds overload feedback ( RFC 7339 ) to the topmost Via of response, if the upstream element
+     * has indicated support for overload control by <i>oc</i> parameter.
+     * @param response Response to be sent upstream
+     */
+    public void addFeedback(Response response)
+    {
+        ViaHeader viaHeader = (ViaHeader) response.getHeader(ViaHeader.NAME);
+        if (viaHeader == null || !((ParametersHeader) viaHeader).hasParameter("oc"))
+            return;
+
+        int currentReduction = reduction;
+
+        // Nothing to tell if there was no overload recently
+        if (currentReduction == 0 && System.currentTimeMillis() - lastOverloadTime > ocValidity)
+            return;
+
+        try
+        {
+            viaHeader.setParameter("oc", Integer.toString(currentReduction));
+            viaHeader.setParameter("oc-algo", "\"loss\"");
+            viaHeader.setParameter("oc-validity", currentReduction == 0 ? "0" : Long.toString(ocValidity));
+            viaHeader.setParameter("oc-seq", ocSeq);
+        }
+        catch (ParseException ex)
+        {
+            if (log.isDebugEnabled())
+                log.debug("Cannot add overload feedback: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @return The percentage of new requests being rejected
+     */
+    public int getReduction()
+    {
+        return reduction;
+    }
+
+    /**
+     * @return The number of requests being processed
+     */
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * @return Retry-After value in seconds for rejected requests
+     */
+    public int getRetryAfter()
+    {
+        return retryAfter;
+    }
+}
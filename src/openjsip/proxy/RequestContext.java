@@ -0,0 +1,255 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.proxy;
+
+import javax.sip.SipProvider;
+import javax.sip.address.SipURI;
+import javax.sip.address.URI;
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.RouteHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Request;
+
+import openjsip.SipUtils;
+
+/**
+ * Facts about incoming request which are needed by several processing stages. Context is built once
+ * when request enters the proxy, so that headers are looked up and method is compared only once.
+ * <p>
+ * Context describes request as it was received. Request may be modified later ( strict routing, Route
+ * and maddr removal ), stages must look at the request itself for values they have modified.
+ */
+public class RequestContext
+{
+    public static final int INVITE = 0;
+    public static final int ACK = 1;
+    public static final int BYE = 2;
+    public static final int CANCEL = 3;
+    public static final int REGISTER = 4;
+    public static final int OPTIONS = 5;
+    public static final int OTHER = 6;
+
+    /**
+     * Method names, indexed by method code
+     */
+    public static final String[] METHOD_NAMES = { Request.INVITE, Request.ACK, Request.BYE, Request.CANCEL, Request.REGISTER, Request.OPTIONS };
+
+    /**
+     * Request
+     */
+    private final Request request;
+
+    /**
+     * Interface request was received on
+     */
+    private final SipProvider sipProvider;
+
+    /**
+     * Identity of interface request was received on
+     */
+    private final InterfaceIdentity identity;
+
+    /**
+     * Method code
+     */
+    private final int method;
+
+    /**
+     * Frequently used headers
+     */
+    private final ToHeader toHeader;
+    private final ViaHeader topViaHeader;
+    private final CallIdHeader callIdHeader;
+    private final CSeqHeader cseqHeader;
+    private final MaxForwardsHeader maxForwardsHeader;
+    private final RouteHeader firstRouteHeader;
+
+    /**
+     * Request has To tag
+     */
+    private final boolean inDialog;
+
+    /**
+     * Request-URI is this proxy and request has Route, i.e. previous hop is a strict router
+     */
+    private final boolean strictRouted;
+
+    /**
+     * The first Route header points to the interface request was received on
+     */
+    private final boolean routedHere;
+
+    /**
+     * Key to location service of subscriber in To header
+     */
+    private final String key;
+
+    /**
+     * Builds context of request.
+     * @param request Incoming request
+     * @param sipProvider Interface request was received on
+     * @param proxy Proxy
+     */
+    public RequestContext(Request request, SipProvider sipProvider, Proxy proxy)
+    {
+        this.request = request;
+        this.sipProvider = sipProvider;
+        this.identity = proxy.getInterfaceIdentity(sipProvider);
+        this.method = getMethodCode(request.getMethod());
+
+        toHeader = (ToHeader) request.getHeader(ToHeader.NAME);
+        topViaHeader = (ViaHeader) request.getHeader(ViaHeader.NAME);
+        callIdHeader = (CallIdHeader) request.getHeader(CallIdHeader.NAME);
+        cseqHeader = (CSeqHeader) request.getHeader(CSeqHeader.NAME);
+        maxForwardsHeader = (MaxForwardsHeader) request.getHeader(MaxForwardsHeader.NAME);
+        firstRouteHeader = (RouteHeader) request.getHeader(RouteHeader.NAME);
+
+        inDialog = toHeader != null && toHeader.getTag() != null;
+        strictRouted = firstRouteHeader != null && identity != null && identity.isOwnURI(request.getRequestURI());
+
+        boolean ownRoute = false;
+        if (firstRouteHeader != null && identity != null && firstRouteHeader.getAddress().getURI().isSipURI())
+        {
+            SipURI routeSipURI = (SipURI) firstRouteHeader.getAddress().getURI();
+            int routePort = routeSipURI.getPort();
+            if (routePort == -1) routePort = 5060;
+
+            ownRoute = routePort == identity.getPort() && proxy.addrMatchesInterface(routeSipURI.getHost());
+        }
+        routedHere = ownRoute;
+
+        /**
+         * If To header contains proxy IP address instead of domain, the default domain is used,
+         * because Location Service is operating in terms of domains, and it should not
+         * know anything about interfaces and ip addresses.
+         */
+        String domain = null;
+        URI toURI = toHeader != null ? toHeader.getAddress().getURI() : null;
+        if (toURI != null && toURI.isSipURI() && proxy.addrMatchesInterface(((SipURI) toURI).getHost()))
+            domain = proxy.getDefaultDomain();
+
+        key = SipUtils.getKeyToLocationService(toURI, domain);
+    }
+
+    /**
+     * @param method Method name
+     * @return Method code, OTHER if method is not one of known methods
+     */
+    public static int getMethodCode(String method)
+    {
+        for (int i = 0; i < METHOD_NAMES.length; i++)
+            if (METHOD_NAMES[i].equals(method))
+                return i;
+
+        return OTHER;
+    }
+
+    public Request getRequest()
+    {
+        return request;
+    }
+
+    public SipProvider getSipProvider()
+    {
+        return sipProvider;
+    }
+
+    public InterfaceIdentity getIdentity()
+    {
+        return identity;
+    }
+
+    /**
+     * @return Method code
+     */
+    public int getMethod()
+    {
+        return method;
+    }
+
+    public ToHeader getToHeader()
+    {
+        return toHeader;
+    }
+
+    public ViaHeader getTopViaHeader()
+    {
+        return topViaHeader;
+    }
+
+    public CallIdHeader getCallIdHeader()
+    {
+        return callIdHeader;
+    }
+
+    public CSeqHeader getCSeqHeader()
+    {
+        return cseqHeader;
+    }
+
+    public MaxForwardsHeader getMaxForwardsHeader()
+    {
+        return maxForwardsHeader;
+    }
+
+    /**
+     * @return The first Route header as received, or null if request has no Route
+     */
+    public RouteHeader getFirstRouteHeader()
+    {
+        return firstRouteHeader;
+    }
+
+    /**
+     * @return true if request has To tag
+     */
+    public boolean isInDialog()
+    {
+        return inDialog;
+    }
+
+    /**
+     * @return true if request was sent by strict router: Request-URI is this proxy and request has Route
+     */
+    public boolean isStrictRouted()
+    {
+        return strictRouted;
+    }
+
+    /**
+     * @return true if the first Route header points to the interface request was received on,
+     * i.e. request follows the route set recorded by this proxy
+     */
+    public boolean isRoutedHere()
+    {
+        return routedHere;
+    }
+
+    /**
+     * @return Key to location service of subscriber in To header, null if To header is not SIP URI
+     */
+    public String getKey()
+    {
+        return key;
+    }
+}
@@ -0,0 +1,487 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.proxy;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Prioritized processing lanes for incoming requests.
+ * <p>
+ * Requests are classified at ingress and put to the bounded queue of their lane. Worker threads take
+ * requests from the lane with the highest priority first, so that CANCEL, ACK and requests within
+ * established dialogs are not stuck behind a flood of new INVITE or REGISTER requests.
+ * To avoid starvation of low priority lanes, every <i>fairness</i>-th request is taken in round robin
+ * order instead.
+ * <p>
+ * With Call-ID affinity, each worker thread has its own shard of lanes and requests are put to
+ * the shard chosen by hash of their Call-ID. Requests of the same call are then processed one at a time
+ * in the order of arrival within their lane, while different calls are processed in parallel.
+ * Without affinity, all workers share a single shard.
+ */
+public class RequestLanes
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(RequestLanes.class);
+
+    /**
+     * Lanes in order of decreasing priority
+     */
+    public static final int CANCEL_LANE = 0;
+    public static final int ACK_LANE = 1;
+    public static final int DIALOG_LANE = 2;
+    public static final int INVITE_LANE = 3;
+    public static final int REGISTER_LANE = 4;
+    public static final int OTHER_LANE = 5;
+
+    /**
+     * Lane names used in configuration and statistics
+     */
+    public static final String[] LANE_NAMES = { "cancel", "ack", "dialog", "invite", "register", "other" };
+
+    /**
+     * Overflow policies, i.e. what is done with request which does not fit into the queue
+     */
+    public static final int OVERFLOW_REJECT = 0;
+    public static final int OVERFLOW_DROP = 1;
+    public static final int OVERFLOW_CALLER = 2;
+
+    /**
+     * Overflow policy names used in configuration
+     */
+    public static final String[] OVERFLOW_NAMES = { "reject", "drop", "caller" };
+
+    /**
+     * Weight of the last sample in smoothed queue delay
+     */
+    private static final double EWMA_WEIGHT = 0.2;
+
+    /**
+     * Statistics of lanes, summed over shards
+     */
+    private final LaneStatistics[] statistics;
+
+    /**
+     * Shards of lanes
+     */
+    private final Shard[] shards;
+
+    /**
+     * Every <i>fairness</i>-th request is taken in round robin order
+     */
+    private final int fairness;
+
+    /**
+     * Overflow policy
+     */
+    private final int overflowPolicy;
+
+    /**
+     * Worker threads
+     */
+    private final Thread[] workers;
+
+    /**
+     * Creates lanes and starts worker threads.
+     * @param threads The number of worker threads
+     * @param queueSizes Queue capacity of each lane. With affinity, capacity is divided between shards.
+     * @param fairness Every <i>fairness</i>-th request is taken in round robin order, 0 means strict priority
+     * @param affinity If true, each worker has its own shard and requests are distributed by Call-ID
+     * @param overflowPolicy One of OVERFLOW_REJECT, OVERFLOW_DROP, OVERFLOW_CALLER
+     */
+    public RequestLanes(int threads, int[] queueSizes, int fairness, boolean affinity, int overflowPolicy)
+    {
+        this.fairness = Math.max(0, fairness);
+        this.overflowPolicy = overflowPolicy;
+
+        statistics = new LaneStatistics[LANE_NAMES.length];
+        for (int i = 0; i < statistics.length; i++)
+            statistics[i] = new LaneStatistics();
+
+        threads = Math.max(1, threads);
+
+        shards = new Shard[affinity ? threads : 1];
+        for (int i = 0; i < shards.length; i++)
+        {
+            int[] shardQueueSizes = new int[LANE_NAMES.length];
+            for (int j = 0; j < shardQueueSizes.length; j++)
+                shardQueueSizes[j] = Math.max(1, (queueSizes[j] + shards.length - 1) / shards.length);
+
+            shards[i] = new Shard(shardQueueSizes);
+        }
+
+        workers = new Thread[threads];
+        for (int i = 0; i < workers.length; i++)
+        {
+            workers[i] = new Thread(new Worker(shards[i % shards.length]), "RequestLanes-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Creates lanes configured by properties <i>prefix</i>.enabled ( yes by default ), <i>prefix</i>.threads ( 16 by default ),
+     * <i>prefix</i>.queue.size ( 1000 by default ), <i>prefix</i>.&lt;lane&gt;.queue.size ( overrides queue size of the lane ),
+     * <i>prefix</i>.fairness ( 8 by default ), <i>prefix</i>.affinity ( yes by default ) and
+     * <i>prefix</i>.overflow ( reject, drop or caller, reject by default ).
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return Request lanes or null if lanes are disabled
+     */
+    public static RequestLanes createFromProperties(Properties props, String prefix)
+    {
+        if (!props.getProperty(prefix + ".enabled", "yes").trim().equalsIgnoreCase("yes"))
+            return null;
+
+        int threads = 16;
+        int queueSize = 1000;
+        int fairness = 8;
+
+        try
+        {
+            threads = Integer.parseInt(props.getProperty(prefix + ".threads", "16").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            queueSize = Integer.parseInt(props.getProperty(prefix + ".queue.size", "1000").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            fairness = Integer.parseInt(props.getProperty(prefix + ".fairness", "8").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        int[] queueSizes = new int[LANE_NAMES.length];
+        for (int i = 0; i < queueSizes.length; i++)
+        {
+            queueSizes[i] = queueSize;
+
+            try
+            {
+                queueSizes[i] = Integer.parseInt(props.getProperty(prefix + "." + LANE_NAMES[i] + ".queue.size", Integer.toString(queueSize)).trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // ignored
+            }
+        }
+
+        boolean affinity = props.getProperty(prefix + ".affinity", "yes").trim().equalsIgnoreCase("yes");
+
+        int overflowPolicy = OVERFLOW_REJECT;
+        String overflow = props.getProperty(prefix + ".overflow", OVERFLOW_NAMES[OVERFLOW_REJECT]).trim();
+        for (int i = 0; i < OVERFLOW_NAMES.length; i++)
+            if (OVERFLOW_NAMES[i].equalsIgnoreCase(overflow))
+                overflowPolicy = i;
+
+        if (log.isInfoEnabled())
+            log.info("Request lanes: " + threads + " threads, queue size " + queueSize + ", fairness " + fairness +
+                     ", Call-ID affinity " + (affinity ? "on" : "off") + ", overflow policy " + OVERFLOW_NAMES[overflowPolicy] + ".");
+
+        return new RequestLanes(threads, queueSizes, fairness, affinity, overflowPolicy);
+    }
+
+    /**
+     * Classifies request.
+     * @param context Context of incoming request
+     * @param keepCancelWithInvite If true, CANCEL is put to INVITE lane so that it cannot overtake the INVITE it cancels.
+     * Is needed when proxy has no server transaction to find the INVITE by.
+     * @return Lane of request
+     */
+    public static int classify(RequestContext context, boolean keepCancelWithInvite)
+    {
+        int method = context.getMethod();
+
+        if (method == RequestContext.CANCEL)
+            return keepCancelWithInvite ? INVITE_LANE : CANCEL_LANE;
+
+        if (method == RequestContext.ACK)
+            return ACK_LANE;
+
+        // Requests within dialog established through this proxy have To tag and carry route set
+        if (context.isInDialog() && context.getFirstRouteHeader() != null)
+            return DIALOG_LANE;
+
+        if (method == RequestContext.INVITE)
+            return INVITE_LANE;
+
+        if (method == RequestContext.REGISTER)
+            return REGISTER_LANE;
+
+        return OTHER_LANE;
+    }
+
+    /**
+     * Queues task to the lane.
+     * @param lane Lane
+     * @param callId Call-ID of request, selects the shard. May be null.
+     * @param task Task to execute
+     * @return false if queue of the lane is full and task was not queued.
+     */
+    public boolean execute(int lane, String callId, Runnable task)
+    {
+        Shard shard = shards[0];
+        if (shards.length > 1 && callId != null)
+        {
+            // Spread hash bits, so that similar Call-IDs land in different shards
+            int h = callId.hashCode();
+            h ^= (h >>> 16);
+            h *= 0x85ebca6b;
+            h ^= (h >>> 13);
+            shard = shards[(h & Integer.MAX_VALUE) % shards.length];
+        }
+
+        if (!shard.queues[lane].offer(new QueuedTask(task)))
+        {
+            statistics[lane].rejected.incrementAndGet();
+            return false;
+        }
+
+        shard.available.release();
+        return true;
+    }
+
+    /**
+     * @return Overflow policy, one of OVERFLOW_REJECT, OVERFLOW_DROP, OVERFLOW_CALLER
+     */
+    public int getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param lane Lane
+     * @return The number of queued requests of the lane in all shards
+     */
+    public int getQueueSize(int lane)
+    {
+        int size = 0;
+        for (Shard shard : shards)
+            size += shard.queues[lane].size();
+
+        return size;
+    }
+
+    /**
+     * @return Statistics of all lanes, one lane per line, followed by queue depths of shards if there are several
+     */
+    public String getStatistics()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("lane      queued  processed   rejected  delay(ms)\n");
+
+        for (int i = 0; i < statistics.length; i++)
+        {
+            LaneStatistics lane = statistics[i];
+            sb.append(String.format("%-8s %7d %10d %10d %10d\n", LANE_NAMES[i], getQueueSize(i), lane.processed.get(), lane.rejected.get(), (int) lane.averageDelay));
+        }
+
+        if (shards.length > 1)
+        {
+            int deepest = 0;
+            int[] depths = new int[shards.length];
+            for (int i = 0; i < shards.length; i++)
+            {
+                depths[i] = shards[i].available.availablePermits();
+                if (depths[i] > depths[deepest])
+                    deepest = i;
+            }
+
+            sb.append("shards: ").append(shards.length).append(", deepest: ").append(depths[deepest]).append(" ( shard ").append(deepest + 1).append(" )\n");
+            sb.append("depths:");
+            for (int depth : depths)
+                sb.append(' ').append(depth);
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Stops worker threads.
+     */
+    public void shutdown()
+    {
+        for (Thread worker : workers)
+            worker.interrupt();
+    }
+
+    /**
+     * Lane queues served by the same workers
+     */
+    private class Shard
+    {
+        private final ArrayBlockingQueue<QueuedTask>[] queues;
+
+        /**
+         * The number of queued requests, workers wait on it
+         */
+        private final Semaphore available = new Semaphore(0);
+
+        /**
+         * The number of requests taken from queues
+         */
+        private final AtomicInteger dispatched = new AtomicInteger();
+
+        @SuppressWarnings("unchecked")
+        private Shard(int[] queueSizes)
+        {
+            queues = (ArrayBlockingQueue<QueuedTask>[]) new ArrayBlockingQueue<?>[LANE_NAMES.length];
+            for (int i = 0; i < queues.length; i++)
+                queues[i] = new ArrayBlockingQueue<QueuedTask>(queueSizes[i]);
+        }
+
+        /**
+         * Takes the next task. Caller must have acquired a permit from <i>available</i>,
+         * which guarantees that at least one task is queued.
+         * @return Queued task or null
+         */
+        private QueuedTask next()
+        {
+            int count = dispatched.incrementAndGet() & Integer.MAX_VALUE;
+
+            if (fairness > 0 && count % fairness == 0)
+            {
+                int start = (count / fairness) % queues.length;
+                for (int i = 0; i < queues.length; i++)
+                {
+                    QueuedTask task = take((start + i) % queues.length);
+                    if (task != null)
+                        return task;
+                }
+            }
+
+            for (int i = 0; i < queues.length; i++)
+            {
+                QueuedTask task = take(i);
+                if (task != null)
+                    return task;
+            }
+
+            return null;
+        }
+
+        private QueuedTask take(int lane)
+        {
+            QueuedTask task = queues[lane].poll();
+            if (task != null)
+            {
+                LaneStatistics stats = statistics[lane];
+                stats.averageDelay += (System.currentTimeMillis() - task.queuedAt - stats.averageDelay) * EWMA_WEIGHT;
+                stats.processed.incrementAndGet();
+            }
+
+            return task;
+        }
+    }
+
+    /**
+     * Statistics of lane
+     */
+    private static class LaneStatistics
+    {
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        /**
+         * Smoothed queue delay in milliseconds
+         */
+        private volatile double averageDelay;
+    }
+
+    /**
+     * Task with the time it was queued at
+     */
+    private static class QueuedTask
+    {
+        private final Runnable task;
+        private final long queuedAt;
+
+        private QueuedTask(Runnable task)
+        {
+            this.task = task;
+            this.queuedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Worker thread
+     */
+    private class Worker implements Runnable
+    {
+        /**
+         * Shard served by the worker
+         */
+        private final Shard shard;
+
+        private Worker(Shard shard)
+        {
+            this.shard = shard;
+        }
+
+        public void run()
+        {
+            while (true)
+            {
+                try
+                {
+                    shard.available.acquire();
+                }
+                catch (InterruptedException ex)
+                {
+                    return;
+                }
+
+                QueuedTask task = shard.next();
+                if (task == null)
+                    continue;
+
+                try
+                {
+                    task.task.run();
+                }
+                catch (Throwable ex)
+                {
+                    log.error("Request processing raised exception: " + ex.getMessage(), ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.proxy;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hashed timing wheel. All timeouts are served by a single thread, scheduling, cancelling
+ * and rescheduling take constant time. Expiration accuracy is limited by tick duration,
+ * which is fine for long protocol timers such as Timer C.
+ */
+public class TimerWheel implements Runnable
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(TimerWheel.class);
+
+    /**
+     * Wheel buckets. Each bucket is a head of doubly linked list of timeouts.
+     */
+    private final Timeout[] buckets;
+
+    /**
+     * Tick duration in milliseconds
+     */
+    private final long tickDuration;
+
+    /**
+     * Time when wheel was started
+     */
+    private final long startTime;
+
+    /**
+     * The number of ticks passed since start
+     */
+    private long tick;
+
+    /**
+     * The number of scheduled timeouts
+     */
+    private int size;
+
+    /**
+     * Worker thread
+     */
+    private final Thread worker;
+
+    /**
+     * Creates and starts wheel.
+     * @param tickDuration Tick duration in milliseconds
+     * @param wheelSize The number of buckets
+     */
+    public TimerWheel(long tickDuration, int wheelSize)
+    {
+        this.tickDuration = Math.max(1, tickDuration);
+        this.buckets = new Timeout[Math.max(1, wheelSize)];
+        this.startTime = System.currentTimeMillis();
+
+        worker = new Thread(this, "TimerWheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules task for execution after <i>delay</i>.
+     * Task is executed by the wheel thread, so it must not block.
+     * @param task Task to execute
+     * @param delay Delay in milliseconds
+     * @return Timeout handle
+     */
+    public synchronized Timeout schedule(Runnable task, long delay)
+    {
+        Timeout timeout = new Timeout(task);
+        link(timeout, delay);
+        return timeout;
+    }
+
+    /**
+     * @return The number of scheduled timeouts
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Stops wheel thread. Pending timeouts will not fire.
+     */
+    public void shutdown()
+    {
+        worker.interrupt();
+    }
+
+    /**
+     * Puts timeout to the bucket corresponding to <i>delay</i>.
+     * @param timeout Timeout
+     * @param delay Delay in milliseconds
+     */
+    private void link(Timeout timeout, long delay)
+    {
+        // Round up, timeout must never fire earlier than requested
+        long deadline = System.currentTimeMillis() + Math.max(0, delay) - startTime;
+        long ticks = Math.max(1, (deadline + tickDuration - 1) / tickDuration - tick);
+
+        timeout.rounds = (ticks - 1) / buckets.length;
+        timeout.bucket = (int) ((tick + ticks) % buckets.length);
+
+        Timeout head = buckets[timeout.bucket];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null)
+            head.prev = timeout;
+        buckets[timeout.bucket] = timeout;
+
+        timeout.state = Timeout.SCHEDULED;
+        size++;
+    }
+
+    /**
+     * Removes timeout from its bucket.
+     * @param timeout Timeout
+     */
+    private void unlink(Timeout timeout)
+    {
+        if (timeout.prev != null)
+            timeout.prev.next = timeout.next;
+        else
+            buckets[timeout.bucket] = timeout.next;
+
+        if (timeout.next != null)
+            timeout.next.prev = timeout.prev;
+
+        timeout.prev = null;
+        timeout.next = null;
+        size--;
+    }
+
+    /**
+     * Advances wheel by one tick.
+     * @return Expired timeouts linked by <i>next</i> field, or null if none.
+     */
+    private synchronized Timeout advance()
+    {
+        tick++;
+
+        Timeout expired = null;
+        Timeout timeout = buckets[(int) (tick % buckets.length)];
+
+        while (timeout != null)
+        {
+            Timeout next = timeout.next;
+
+            if (timeout.rounds > 0)
+            {
+                timeout.rounds--;
+            }
+            else
+            {
+                unlink(timeout);
+                timeout.state = Timeout.EXPIRED;
+                timeout.next = expired;
+                expired = timeout;
+            }
+
+            timeout = next;
+        }
+
+        return expired;
+    }
+
+    /**
+     * Wheel thread
+     */
+    public void run()
+    {
+        long nextTick = startTime + tickDuration;
+
+        while (!Thread.currentThread().isInterrupted())
+        {
+            try
+            {
+                long sleep = nextTick - System.currentTimeMillis();
+                if (sleep > 0)
+                    Thread.sleep(sleep);
+            }
+            catch (InterruptedException ex)
+            {
+                return;
+            }
+
+            nextTick += tickDuration;
+
+            Timeout timeout = advance();
+            while (timeout != null)
+            {
+                Timeout next = timeout.next;
+                timeout.next = null;
+
+                try
+                {
+                    timeout.task.run();
+                }
+                catch (Throwable ex)
+                {
+                    log.error("Timer task raised exception: " + ex.getMessage(), ex);
+                }
+
+                timeout = next;
+            }
+        }
+    }
+
+    /**
+     * Handle of scheduled task.
+     */
+    public class Timeout
+    {
+        private static final int SCHEDULED = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+
+        private final Runnable task;
+        private Timeout prev;
+        private Timeout next;
+        private int bucket;
+        private long rounds;
+        private int state;
+
+        private Timeout(Runnable task)
+        {
+            this.task = task;
+        }
+
+        /**
+         * Cancels timeout.
+         * @return false if timeout has already expired or was cancelled.
+         */
+        public boolean cancel()
+        {
+            synchronized (TimerWheel.this)
+            {
+                if (state != SCHEDULED)
+                    return false;
+
+                unlink(this);
+                state = CANCELLED;
+                return true;
+            }
+        }
+
+        /**
+         * Moves timeout so that it expires after <i>delay</i> from now.
+         * @param delay Delay in milliseconds
+         * @return false if timeout has already expired or was cancelled.
+         */
+        public boolean reschedule(long delay)
+        {
+            synchronized (TimerWheel.this)
+            {
+                if (state != SCHEDULED)
+                    return false;
+
+                unlink(this);
+                link(this, delay);
+                return true;
+            }
+        }
+    }
+}
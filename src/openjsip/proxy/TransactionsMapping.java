@@ -1,163 +1,398 @@
-/**
- * This file is part of OpenJSIP, a free SIP service components.
- *
- * OpenJSIP is free software; you can redistribute it and/or modify
- * it under the terms of the GNU General Public License as published by
- * the Free Software Foundation; either version 2 of the License, or
- * (at your option) any later version
- *
- * OpenJSIP is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU General Public License for more details.
- *
- * You should have received a copy of the GNU General Public License
- * along with this program; if not, write to the Free Software
- * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
- *
- * Copyright (c) 2009 - Yevgen Krapiva
- */
-package openjsip.proxy;
-
-import javax.sip.ServerTransaction;
-import javax.sip.ClientTransaction;
-import javax.sip.SipProvider;
-import java.util.*;
-
-/**
- * When stateful, a proxy is purely a SIP transaction processing engine.
- * Its behavior is modeled here in terms of the server and client
- * transactions defined in Section 17.  A stateful proxy has a server
- * transaction associated with one or more client transactions by a
- * higher layer proxy processing component (see figure 3), known as a
- * proxy core.
- */
-
-/**
- * This is a class that maps ServerTransactions to one or more ClientTransactions
- */
-public class TransactionsMapping
-{
-    /**
-     * SipProvider
-     */
-    private final SipProvider sipProvider;
-
-    /**
-     * Associated with the request ServerTransaction
-     */
-    private final ServerTransaction serverTransaction;
-
-    /**
-     * Set of ClientTransactions
-     */
-    private final HashSet<ClientTransaction> clientTransactions;
-
-    /**
-     * Timer C to ClientTransaction mapping
-     */
-    private final Hashtable<ClientTransaction, Timer> timers;
-
-    /**
-     * Response context
-     */
-    private final ResponseContext responseContext;
-
-    /**
-     * Constructs a new transactions mapping class
-     * @param serverTransaction ServerTransaction object for wich this class will hold associated ClientTransactions
-     * @param sipProvider SipProvider object wich received request and with wich <i>serverTransaction</i> is associated.
-     * @throws NullPointerException If <i>serverTransaction<i/> is null
-     */
-    public TransactionsMapping(ServerTransaction serverTransaction, SipProvider sipProvider)
-    {
-        serverTransaction.getRetransmitTimer();
-        this.sipProvider = sipProvider;
-        this.clientTransactions = new HashSet<ClientTransaction>();
-        this.serverTransaction = serverTransaction;
-        this.timers = new Hashtable<ClientTransaction, Timer>();
-        this.responseContext = new ResponseContext(serverTransaction.getRequest());
-    }
-
-    public ServerTransaction getServerTransaction()
-    {
-        return serverTransaction;
-    }
-
-    /**
-     * @return Client transactions associated with server transactions. If none, the empty set is returned (but not null).
-     */
-    public HashSet getClientTransactions()
-    {
-        return clientTransactions;
-    }
-
-    /**
-     * @return Client transactions associated with server transactions. If none, zero-length array is returned (but not null).
-     */
-    public ClientTransaction[] getClientTransactionsArray()
-    {
-        ClientTransaction[] cts = new ClientTransaction[clientTransactions.size()];
-        clientTransactions.toArray(cts);
-        return cts;
-    }
-
-    public SipProvider getSipProvider()
-    {
-        return sipProvider;
-    }
-
-    public boolean hasClientTransactions()
-    {
-        return !clientTransactions.isEmpty();
-    }
-
-    public boolean contains(ClientTransaction clientTransaction)
-    {
-        return clientTransactions.contains(clientTransaction);
-    }
-
-    public void addClientTransaction(ClientTransaction clientTransaction)
-    {
-        clientTransactions.add(clientTransaction);
-    }
-
-    public void removeMapping(ClientTransaction clientTransaction)
-    {
-        this.clientTransactions.remove(clientTransaction);
-	}
-
-    /**
-     * Register TimerC for the <i>clientTransaction</i>.
-     * TimerC is used to terminate clientTransaction when the final response is absent for a long time.
-     * @param timer Timer object
-     * @param clientTransaction Client transaction which timer will cancel.
-     */
-    public void registerTimerC(Timer timer, ClientTransaction clientTransaction)
-    {
-        if (timer != null && !contains(clientTransaction))
-        {
-            timers.put(clientTransaction, timer);
-        }
-    }
-
-    /**
-     * Cancels and removes TimerC to ClientTransaction association.
-     * @param clientTransaction Client transaction object for which to cancel TimerC.
-     */
-    public void cancelTimerC(ClientTransaction clientTransaction)
-    {
-        Timer timer = timers.get(clientTransaction);
-        if (timer != null)
-        {
-            timer.cancel();
-            timers.remove(clientTransaction);
-        }
-    }
-
-    public ResponseContext getResponseContext()
-    {
-        return responseContext;
-    }
-
-}
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.proxy;
+
+import javax.sip.ServerTransaction;
+import javax.sip.ClientTransaction;
+import javax.sip.SipProvider;
+import javax.sip.TransactionState;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * When stateful, a proxy is purely a SIP transaction processing engine.
+ * Its behavior is modeled here in terms of the server and client
+ * transactions defined in Section 17.  A stateful proxy has a server
+ * transaction associated with one or more client transactions by a
+ * higher layer proxy processing component (see figure 3), known as a
+ * proxy core.
+ */
+
+/**
+ * This is a class that maps ServerTransactions to one or more ClientTransactions.
+ * It is accessed concurrently by SIP stack threads, so it holds an explicit state
+ * of the server transaction which guarantees that the best final response is sent only once.
+ */
+public class TransactionsMapping
+{
+    /**
+     * No final response has been sent yet
+     */
+    public static final int PROCEEDING = 0;
+
+    /**
+     * All branches have completed and one of the threads is sending the best response
+     */
+    public static final int BEST_RESPONSE_PENDING = 1;
+
+    /**
+     * Final response has been sent on the server transaction
+     */
+    public static final int COMPLETED = 2;
+
+    /**
+     * Empty branch array
+     */
+    private static final ClientTransaction[] NO_BRANCHES = new ClientTransaction[0];
+
+    /**
+     * SipProvider
+     */
+    private final SipProvider sipProvider;
+
+    /**
+     * Associated with the request ServerTransaction
+     */
+    private final ServerTransaction serverTransaction;
+
+    /**
+     * Client transactions. Array is never modified, it is replaced when branch is added or removed,
+     * so readers may use it without locking and copying.
+     */
+    private volatile ClientTransaction[] clientTransactions;
+
+    /**
+     * State of the server transaction: PROCEEDING, BEST_RESPONSE_PENDING or COMPLETED
+     */
+    private final AtomicInteger state;
+
+    /**
+     * Timer C to ClientTransaction mapping
+     */
+    private final ConcurrentHashMap<ClientTransaction, TimerWheel.Timeout> timers;
+
+    /**
+     * Response context
+     */
+    private final ResponseContext responseContext;
+
+    /**
+     * Client transactions to be cancelled. Value is true if CANCEL has been sent,
+     * false if it is to be sent once provisional response arrives.
+     */
+    private final ConcurrentHashMap<ClientTransaction, Boolean> cancels;
+
+    /**
+     * Forking state, null if request was not forked by ForkingEngine
+     */
+    private volatile ForkingEngine.Fork fork;
+
+    /**
+     * True if CANCEL for the request has been received
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Constructs a new transactions mapping class
+     * @param serverTransaction ServerTransaction object for wich this class will hold associated ClientTransactions
+     * @param sipProvider SipProvider object wich received request and with wich <i>serverTransaction</i> is associated.
+     * @throws NullPointerException If <i>serverTransaction<i/> is null
+     */
+    public TransactionsMapping(ServerTransaction serverTransaction, SipProvider sipProvider)
+    {
+        serverTransaction.getRetransmitTimer();
+        this.sipProvider = sipProvider;
+        this.clientTransactions = NO_BRANCHES;
+        this.serverTransaction = serverTransaction;
+        this.state = new AtomicInteger(PROCEEDING);
+        this.timers = new ConcurrentHashMap<ClientTransaction, TimerWheel.Timeout>(4);
+        this.cancels = new ConcurrentHashMap<ClientTransaction, Boolean>(4);
+        this.responseContext = new ResponseContext();
+    }
+
+    public ServerTransaction getServerTransaction()
+    {
+        return serverTransaction;
+    }
+
+    /**
+     * @return Client transactions associated with server transactions. If none, zero-length array is returned (but not null).
+     * Returned array must not be modified.
+     */
+    public ClientTransaction[] getClientTransactionsArray()
+    {
+        return clientTransactions;
+    }
+
+    public SipProvider getSipProvider()
+    {
+        return sipProvider;
+    }
+
+    public boolean hasClientTransactions()
+    {
+        return clientTransactions.length != 0;
+    }
+
+    public boolean contains(ClientTransaction clientTransaction)
+    {
+        ClientTransaction[] cts = clientTransactions;
+        for (int i = 0; i < cts.length; i++)
+            if (cts[i] == clientTransaction)
+                return true;
+
+        return false;
+    }
+
+    public synchronized void addClientTransaction(ClientTransaction clientTransaction)
+    {
+        ClientTransaction[] cts = clientTransactions;
+        ClientTransaction[] newCts = new ClientTransaction[cts.length + 1];
+        System.arraycopy(cts, 0, newCts, 0, cts.length);
+        newCts[cts.length] = clientTransaction;
+        clientTransactions = newCts;
+    }
+
+    public synchronized void removeMapping(ClientTransaction clientTransaction)
+    {
+        ClientTransaction[] cts = clientTransactions;
+        for (int i = 0; i < cts.length; i++)
+        {
+            if (cts[i] == clientTransaction)
+            {
+                ClientTransaction[] newCts = new ClientTransaction[cts.length - 1];
+                System.arraycopy(cts, 0, newCts, 0, i);
+                System.arraycopy(cts, i + 1, newCts, i, cts.length - i - 1);
+                clientTransactions = newCts;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if all client transactions have completed
+     */
+    public boolean areClientTransactionsCompleted()
+    {
+        ClientTransaction[] cts = clientTransactions;
+        for (int i = 0; i < cts.length; i++)
+            if (cts[i].getState().getValue() < TransactionState._COMPLETED)
+                return false;
+
+        return true;
+    }
+
+    /**
+     * @return State of the server transaction: PROCEEDING, BEST_RESPONSE_PENDING or COMPLETED
+     */
+    public int getState()
+    {
+        return state.get();
+    }
+
+    /**
+     * @return true if final response has been sent or is being sent on the server transaction
+     */
+    public boolean isFinalResponseSent()
+    {
+        return state.get() != PROCEEDING;
+    }
+
+    /**
+     * Moves to BEST_RESPONSE_PENDING state. Only one thread succeeds, it must then send the best response
+     * and call <i>bestResponseSent()</i>, or <i>bestResponseFailed()</i> if response was not sent.
+     * @return true if the calling thread is to send the best response
+     */
+    public boolean beginBestResponse()
+    {
+        return state.compareAndSet(PROCEEDING, BEST_RESPONSE_PENDING);
+    }
+
+    /**
+     * Moves from BEST_RESPONSE_PENDING to COMPLETED state.
+     */
+    public void bestResponseSent()
+    {
+        state.compareAndSet(BEST_RESPONSE_PENDING, COMPLETED);
+        bestResponseDone();
+    }
+
+    /**
+     * Moves from BEST_RESPONSE_PENDING back to PROCEEDING state, so that best response may be sent later.
+     */
+    public void bestResponseFailed()
+    {
+        state.compareAndSet(BEST_RESPONSE_PENDING, PROCEEDING);
+        bestResponseDone();
+    }
+
+    /**
+     * Wakes up threads waiting in <i>finalResponseSent()</i>.
+     */
+    private void bestResponseDone()
+    {
+        synchronized (state)
+        {
+            state.notifyAll();
+        }
+    }
+
+    /**
+     * Moves to COMPLETED state before 2xx response is forwarded. If best response is being sent
+     * by another thread, waits until it is done, so that 2xx response is never followed by the best response.
+     * @return true if no final response has been sent before, false if 2xx response is late
+     * ( it may be forwarded then only if it is a response to INVITE ).
+     */
+    public boolean finalResponseSent()
+    {
+        synchronized (state)
+        {
+            boolean interrupted = false;
+
+            try
+            {
+                while (true)
+                {
+                    if (state.compareAndSet(PROCEEDING, COMPLETED))
+                        return true;
+
+                    if (state.get() == COMPLETED)
+                        return false;
+
+                    // Best response is being sent
+                    try
+                    {
+                        state.wait();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally
+            {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Register TimerC for the <i>clientTransaction</i>.
+     * TimerC is used to terminate clientTransaction when the final response is absent for a long time.
+     * Previously registered TimerC of the same client transaction is cancelled.
+     * @param timeout Scheduled TimerC
+     * @param clientTransaction Client transaction which timer will cancel.
+     */
+    public void registerTimerC(TimerWheel.Timeout timeout, ClientTransaction clientTransaction)
+    {
+        if (timeout != null)
+        {
+            TimerWheel.Timeout previous = timers.put(clientTransaction, timeout);
+            if (previous != null && previous != timeout)
+                previous.cancel();
+        }
+    }
+
+    /**
+     * Resets TimerC of the <i>clientTransaction</i>.
+     * @param clientTransaction Client transaction
+     * @param delay New TimerC delay in milliseconds
+     * @return false if there is no pending TimerC for the <i>clientTransaction</i>.
+     */
+    public boolean resetTimerC(ClientTransaction clientTransaction, long delay)
+    {
+        TimerWheel.Timeout timeout = timers.get(clientTransaction);
+        return timeout != null && timeout.reschedule(delay);
+    }
+
+    /**
+     * Cancels and removes TimerC to ClientTransaction association.
+     * @param clientTransaction Client transaction object for which to cancel TimerC.
+     */
+    public void cancelTimerC(ClientTransaction clientTransaction)
+    {
+        TimerWheel.Timeout timeout = timers.remove(clientTransaction);
+        if (timeout != null)
+            timeout.cancel();
+    }
+
+    /**
+     * Remembers that CANCEL has been sent for the <i>clientTransaction</i>.
+     * @param clientTransaction Client transaction
+     * @return false if CANCEL has already been sent, so it must not be sent again.
+     */
+    public boolean markCancelSent(ClientTransaction clientTransaction)
+    {
+        return !Boolean.TRUE.equals(cancels.put(clientTransaction, Boolean.TRUE));
+    }
+
+    /**
+     * Remembers that <i>clientTransaction</i> is to be cancelled when provisional response arrives.
+     * CANCEL cannot be sent before that ( RFC 3261 9.1 ).
+     * @param clientTransaction Client transaction
+     */
+    public void markCancelDeferred(ClientTransaction clientTransaction)
+    {
+        cancels.putIfAbsent(clientTransaction, Boolean.FALSE);
+    }
+
+    /**
+     * @param clientTransaction Client transaction
+     * @return true if <i>clientTransaction</i> is to be cancelled and CANCEL has not been sent yet.
+     */
+    public boolean isCancelDeferred(ClientTransaction clientTransaction)
+    {
+        return Boolean.FALSE.equals(cancels.get(clientTransaction));
+    }
+
+    /**
+     * Remembers that CANCEL for the request has been received, so that no new branches are created.
+     */
+    public void markCancelled()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if CANCEL for the request has been received
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    public ForkingEngine.Fork getFork()
+    {
+        return fork;
+    }
+
+    public void setFork(ForkingEngine.Fork fork)
+    {
+        this.fork = fork;
+    }
+
+    public ResponseContext getResponseContext()
+    {
+        return responseContext;
+    }
+
+}
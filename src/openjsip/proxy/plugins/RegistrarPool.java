@@ -0,0 +1,390 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.proxy.plugins;
+
+import openjsip.RemoteServiceStub;
+import openjsip.remote.registrar.RegistrarInterface;
+
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.text.ParseException;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of remote Registrar servers.
+ * Requests of one address-of-record are sent to the same registrar ( rendezvous hashing ), unless
+ * it is much busier than the others or unavailable. Stubs are cached and registrars are checked
+ * periodically, so failed registrar is skipped until it answers again.
+ */
+public class RegistrarPool
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(RegistrarPool.class);
+
+    /**
+     * Registrar endpoints
+     */
+    private final Endpoint[] endpoints;
+
+    /**
+     * If affined registrar has this many more outstanding requests than the least loaded one,
+     * request is sent to the least loaded registrar.
+     */
+    private final int skewLimit;
+
+    /**
+     * Health check timer
+     */
+    private final Timer healthCheckTimer;
+
+    /**
+     * Creates pool.
+     * @param endpoints Registrar endpoints
+     * @param skewLimit Allowed difference in outstanding requests before affinity is ignored
+     * @param healthCheckInterval Health check interval in seconds
+     */
+    public RegistrarPool(Vector<Endpoint> endpoints, int skewLimit, int healthCheckInterval)
+    {
+        this.endpoints = endpoints.toArray(new Endpoint[endpoints.size()]);
+        this.skewLimit = Math.max(1, skewLimit);
+
+        healthCheckTimer = new Timer(true);
+        healthCheckTimer.schedule(new TimerTask()
+        {
+            public void run()
+            {
+                checkHealth();
+            }
+        }, 0, Math.max(1, healthCheckInterval) * 1000L);
+    }
+
+    /**
+     * Creates pool configured by properties <i>prefix</i>.N.rmi.host, <i>prefix</i>.N.rmi.port and
+     * <i>prefix</i>.N.rmi.objectname, where N starts from 1. If none is specified, single registrar
+     * <i>prefix</i>.rmi.host, <i>prefix</i>.rmi.port and <i>prefix</i>.rmi.objectname is used.
+     * Also reads <i>prefix</i>.pool.skew (16 by default) and <i>prefix</i>.pool.check.interval (seconds, 5 by default).
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return Registrar pool
+     */
+    public static RegistrarPool createFromProperties(Properties props, String prefix)
+    {
+        Vector<Endpoint> endpoints = new Vector<Endpoint>();
+
+        for (int index = 1; props.getProperty(prefix + "." + index + ".rmi.host") != null; index++)
+            endpoints.add(createEndpoint(props, prefix + "." + index));
+
+        if (endpoints.isEmpty())
+            endpoints.add(createEndpoint(props, prefix));
+
+        int skewLimit = 16;
+        int healthCheckInterval = 5;
+
+        try
+        {
+            skewLimit = Integer.parseInt(props.getProperty(prefix + ".pool.skew", "16").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            healthCheckInterval = Integer.parseInt(props.getProperty(prefix + ".pool.check.interval", "5").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        if (log.isInfoEnabled())
+            log.info("Registrar pool: " + endpoints);
+
+        return new RegistrarPool(endpoints, skewLimit, healthCheckInterval);
+    }
+
+    /**
+     * Reads endpoint settings.
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return Registrar endpoint
+     */
+    private static Endpoint createEndpoint(Properties props, String prefix)
+    {
+        String host = props.getProperty(prefix + ".rmi.host", "localhost").trim();
+        String name = props.getProperty(prefix + ".rmi.objectname", "Registrar").trim();
+        int port = 1099;
+
+        try
+        {
+            port = Integer.parseInt(props.getProperty(prefix + ".rmi.port", "1099").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        return new Endpoint(host, port, name);
+    }
+
+    /**
+     * Sends encoded REGISTER request to registrar responsible for address-of-record.
+     * If registrar cannot be contacted, the next one is tried. Other failures are not retried,
+     * as registrar might have already applied the request.
+     * @param aor Address-of-record, used to choose registrar
+     * @param request Encoded request
+     * @param correctDomain Domain override, may be null
+     * @return Encoded response
+     * @throws ParseException If registrar cannot parse request
+     * @throws RemoteException If none of registrars can be contacted or remote call fails
+     */
+    public byte[] processRequest(String aor, byte[] request, String correctDomain) throws ParseException, RemoteException
+    {
+        Endpoint[] ranked = rank(aor);
+        RemoteException lastException = null;
+
+        for (Endpoint endpoint : ranked)
+        {
+            RegistrarInterface registrar = endpoint.getStub();
+            if (registrar == null)
+                continue;
+
+            endpoint.outstanding.incrementAndGet();
+
+            try
+            {
+                return registrar.processRequest(request, correctDomain);
+            }
+            catch (RemoteException ex)
+            {
+                // Only failures proving that call has not been executed are safe to retry,
+                // otherwise retry with the same CSeq would be rejected by the next registrar
+                if (!RemoteServiceStub.isStale(ex))
+                    throw ex;
+
+                lastException = ex;
+                endpoint.fail();
+
+                if (log.isDebugEnabled())
+                    log.debug("Registrar " + endpoint + " failed ( " + ex.getMessage() + " ), trying next one.");
+            }
+            finally
+            {
+                endpoint.outstanding.decrementAndGet();
+            }
+        }
+
+        throw lastException != null ? lastException : new RemoteException("No registrar available.");
+    }
+
+    /**
+     * Orders endpoints for address-of-record: available endpoints first, starting from the one with
+     * the highest rendezvous weight, unless it has too many outstanding requests.
+     * @param aor Address-of-record
+     * @return Endpoints in the order they should be tried
+     */
+    private Endpoint[] rank(String aor)
+    {
+        int n = endpoints.length;
+        Endpoint[] ranked = new Endpoint[n];
+        long[] weights = new long[n];
+        int aorHash = aor != null ? aor.hashCode() : 0;
+
+        // Insertion sort, the number of registrars is small
+        for (int i = 0; i < n; i++)
+        {
+            Endpoint endpoint = endpoints[i];
+            long weight = mix(aorHash * 31L + endpoint.hashCode());
+
+            // Unavailable endpoints are tried last
+            if (!endpoint.alive)
+                weight = Long.MIN_VALUE + (weight >>> 1);
+
+            int j = i;
+            while (j > 0 && weights[j - 1] < weight)
+            {
+                ranked[j] = ranked[j - 1];
+                weights[j] = weights[j - 1];
+                j--;
+            }
+
+            ranked[j] = endpoint;
+            weights[j] = weight;
+        }
+
+        // Least-outstanding correction
+        int least = 0;
+        for (int i = 1; i < n && ranked[i].alive; i++)
+        {
+            if (ranked[i].outstanding.get() < ranked[least].outstanding.get())
+                least = i;
+        }
+
+        if (least != 0 && ranked[0].outstanding.get() - ranked[least].outstanding.get() >= skewLimit)
+        {
+            Endpoint endpoint = ranked[least];
+            System.arraycopy(ranked, 0, ranked, 1, least);
+            ranked[0] = endpoint;
+        }
+
+        return ranked;
+    }
+
+    /**
+     * 64-bit finalizer of MurmurHash3
+     * @param value Value
+     * @return Mixed value
+     */
+    private static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb3f99e3b4e63L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Checks all registrars and marks them available or not.
+     */
+    private void checkHealth()
+    {
+        for (Endpoint endpoint : endpoints)
+        {
+            boolean wasAlive = endpoint.alive;
+
+            try
+            {
+                RegistrarInterface registrar = endpoint.getStub();
+                endpoint.alive = registrar != null && registrar.isAlive();
+            }
+            catch (RemoteException ex)
+            {
+                endpoint.fail();
+            }
+
+            if (wasAlive != endpoint.alive)
+            {
+                if (endpoint.alive)
+                    log.info("Registrar " + endpoint + " is available.");
+                else
+                    log.warn("Registrar " + endpoint + " is unavailable.");
+            }
+        }
+    }
+
+    /**
+     * Stops health checking.
+     */
+    public void shutdown()
+    {
+        healthCheckTimer.cancel();
+    }
+
+    /**
+     * Remote registrar.
+     */
+    public static class Endpoint
+    {
+        private final String host;
+        private final int port;
+        private final String name;
+        private final int hash;
+
+        /**
+         * Cached stub
+         */
+        private volatile RegistrarInterface stub;
+
+        /**
+         * Availability flag
+         */
+        private volatile boolean alive = true;
+
+        /**
+         * Number of requests sent and not answered yet
+         */
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        public Endpoint(String host, int port, String name)
+        {
+            this.host = host;
+            this.port = port;
+            this.name = name;
+            this.hash = toString().hashCode();
+        }
+
+        /**
+         * @return Cached stub, or newly looked up one. Null if registrar cannot be found.
+         */
+        private RegistrarInterface getStub()
+        {
+            RegistrarInterface registrar = stub;
+            if (registrar != null)
+                return registrar;
+
+            try
+            {
+                Registry registry = LocateRegistry.getRegistry(host, port);
+                registrar = (RegistrarInterface) registry.lookup(name);
+                stub = registrar;
+            }
+            catch (Exception ex)
+            {
+                alive = false;
+
+                if (log.isDebugEnabled())
+                    log.debug("Cannot connect to remote Registrar server " + this + ": " + ex.getMessage());
+            }
+
+            return registrar;
+        }
+
+        /**
+         * Drops cached stub and marks registrar unavailable.
+         */
+        private void fail()
+        {
+            stub = null;
+            alive = false;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public String toString()
+        {
+            return host + ":" + port + "/" + name;
+        }
+    }
+}
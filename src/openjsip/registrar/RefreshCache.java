@@ -0,0 +1,193 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.registrar;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers compact fingerprints of recently accepted single-contact registrations,
+ * so that subsequent refreshes ( same Call-ID, To, Request-URI and Contact, higher CSeq )
+ * can be recognized without running the whole registration procedure.
+ */
+public class RefreshCache
+{
+    /**
+     * Fingerprints. Key is Call-ID.
+     */
+    private final ConcurrentHashMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+
+    /**
+     * Maximum number of fingerprints
+     */
+    private final int maxEntries;
+
+    /**
+     * Creates cache.
+     * @param maxEntries Maximum number of fingerprints
+     */
+    public RefreshCache(int maxEntries)
+    {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Finds fingerprint matching the refresh.
+     * @param callId Call-ID of REGISTER request
+     * @param toURI To header URI as received
+     * @param requestURI Request-URI as received
+     * @param correctDomain Domain override, may be null
+     * @param contact Contact header value with expires parameter already corrected
+     * @param cseq CSeq of REGISTER request
+     * @return Fingerprint, or null if request is not a refresh of known registration.
+     */
+    public Fingerprint get(String callId, String toURI, String requestURI, String correctDomain, String contact, long cseq)
+    {
+        Fingerprint fingerprint = fingerprints.get(callId);
+        if (fingerprint == null)
+            return null;
+
+        if (fingerprint.expiresAt <= System.currentTimeMillis())
+        {
+            fingerprints.remove(callId, fingerprint);
+            return null;
+        }
+
+        if (cseq <= fingerprint.cseq || !fingerprint.contact.equals(contact) || !fingerprint.toURI.equals(toURI) ||
+            !fingerprint.requestURI.equals(requestURI) ||
+            (correctDomain == null ? fingerprint.correctDomain != null : !correctDomain.equals(fingerprint.correctDomain)))
+            return null;
+
+        return fingerprint;
+    }
+
+    /**
+     * Stores fingerprint of accepted registration.
+     * @param callId Call-ID of REGISTER request
+     * @param key Key to location service
+     * @param toURI To header URI as received
+     * @param requestURI Request-URI as received
+     * @param correctDomain Domain override, may be null
+     * @param contact Contact header value with expires parameter already corrected
+     * @param cseq CSeq of REGISTER request
+     * @param expires Binding lifetime in seconds
+     */
+    public void put(String callId, String key, String toURI, String requestURI, String correctDomain, String contact, long cseq, int expires)
+    {
+        if (fingerprints.size() >= maxEntries)
+            purge();
+
+        fingerprints.put(callId, new Fingerprint(key, toURI, requestURI, correctDomain, contact, cseq, System.currentTimeMillis() + expires * 1000L));
+    }
+
+    /**
+     * Updates CSeq and lifetime of refreshed registration.
+     * @param fingerprint Fingerprint found by get()
+     * @param cseq CSeq of REGISTER request
+     * @param expires Binding lifetime in seconds
+     */
+    public void refresh(Fingerprint fingerprint, long cseq, int expires)
+    {
+        fingerprint.cseq = cseq;
+        fingerprint.expiresAt = System.currentTimeMillis() + expires * 1000L;
+    }
+
+    /**
+     * Forgets registration made with <i>callId</i>.
+     * @param callId Call-ID
+     */
+    public void remove(String callId)
+    {
+        fingerprints.remove(callId);
+    }
+
+    /**
+     * Forgets all registrations of subscriber.
+     * @param key Key to location service
+     */
+    public void removeAll(String key)
+    {
+        Iterator<Fingerprint> it = fingerprints.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().key.equals(key))
+                it.remove();
+        }
+    }
+
+    /**
+     * @return The number of stored fingerprints
+     */
+    public int size()
+    {
+        return fingerprints.size();
+    }
+
+    /**
+     * Removes expired fingerprints. If cache is still full, it is cleared.
+     */
+    private void purge()
+    {
+        long now = System.currentTimeMillis();
+
+        Iterator<Fingerprint> it = fingerprints.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().expiresAt <= now)
+                it.remove();
+        }
+
+        if (fingerprints.size() >= maxEntries)
+            fingerprints.clear();
+    }
+
+    /**
+     * Compact description of accepted registration.
+     */
+    public static class Fingerprint
+    {
+        private final String key;
+        private final String toURI;
+        private final String requestURI;
+        private final String correctDomain;
+        private final String contact;
+        private volatile long cseq;
+        private volatile long expiresAt;
+
+        private Fingerprint(String key, String toURI, String requestURI, String correctDomain, String contact, long cseq, long expiresAt)
+        {
+            this.key = key;
+            this.toURI = toURI;
+            this.requestURI = requestURI;
+            this.correctDomain = correctDomain;
+            this.contact = contact;
+            this.cseq = cseq;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return Key to location service
+         */
+        public String getKey()
+        {
+            return key;
+        }
+    }
+}
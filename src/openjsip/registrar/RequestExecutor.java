@@ -0,0 +1,250 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.registrar;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded pool of worker threads processing incoming requests outside of SIP stack threads.
+ * Keeps track of the time requests spend in queue, so that caller can shed load
+ * ( reply 503 Service Unavailable ) when queue delay becomes too high.
+ */
+public class RequestExecutor
+{
+    /**
+     * Logger
+     */
+    private static Logger log = Logger.getLogger(RequestExecutor.class);
+
+    /**
+     * Weight of the last sample in smoothed queue delay
+     */
+    private static final double EWMA_WEIGHT = 0.2;
+
+    /**
+     * Worker threads
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Queue delay in milliseconds after which new requests are rejected
+     */
+    private final long delayThreshold;
+
+    /**
+     * Maximum Retry-After value in seconds
+     */
+    private final int retryAfterMax;
+
+    /**
+     * Smoothed queue delay in milliseconds
+     */
+    private volatile double averageDelay;
+
+    /**
+     * Random generator for Retry-After dispersion
+     */
+    private final Random random = new Random();
+
+    /**
+     * Creates executor.
+     * @param threads Number of worker threads
+     * @param queueSize Maximum number of queued requests
+     * @param delayThreshold Queue delay in milliseconds after which new requests are rejected
+     * @param retryAfterMax Maximum Retry-After value in seconds
+     */
+    public RequestExecutor(int threads, int queueSize, long delayThreshold, int retryAfterMax)
+    {
+        this.delayThreshold = Math.max(1, delayThreshold);
+        this.retryAfterMax = Math.max(1, retryAfterMax);
+
+        executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory()
+        {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "RequestExecutor-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Creates executor configured by properties <i>prefix</i>.threads (8 by default),
+     * <i>prefix</i>.queue.size (1000 by default), <i>prefix</i>.queue.delay.max (milliseconds, 500 by default)
+     * and <i>prefix</i>.retry.after.max (seconds, 60 by default).
+     * @param props Configuration properties
+     * @param prefix Properties name prefix
+     * @return Request executor
+     */
+    public static RequestExecutor createFromProperties(Properties props, String prefix)
+    {
+        int threads = 8;
+        int queueSize = 1000;
+        int delayThreshold = 500;
+        int retryAfterMax = 60;
+
+        try
+        {
+            threads = Integer.parseInt(props.getProperty(prefix + ".threads", "8").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            queueSize = Integer.parseInt(props.getProperty(prefix + ".queue.size", "1000").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            delayThreshold = Integer.parseInt(props.getProperty(prefix + ".queue.delay.max", "500").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        try
+        {
+            retryAfterMax = Integer.parseInt(props.getProperty(prefix + ".retry.after.max", "60").trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // ignored
+        }
+
+        if (log.isInfoEnabled())
+            log.info("Request workers: " + threads + " threads, queue size " + queueSize + ", max queue delay " + delayThreshold + " ms.");
+
+        return new RequestExecutor(threads, queueSize, delayThreshold, retryAfterMax);
+    }
+
+    /**
+     * Queues task for execution.
+     * @param task Task to execute
+     * @return false if executor is overloaded and task was not queued.
+     */
+    public boolean execute(final Task task)
+    {
+        if (isOverloaded())
+            return false;
+
+        final long queuedAt = System.currentTimeMillis();
+
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    long delay = System.currentTimeMillis() - queuedAt;
+                    averageDelay += (delay - averageDelay) * EWMA_WEIGHT;
+
+                    // Client has most likely retransmitted the request already, the newer copy will be processed instead
+                    if (delay > delayThreshold)
+                        task.reject();
+                    else
+                        task.run();
+                }
+            });
+
+            return true;
+        }
+        catch (RejectedExecutionException ex)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Smoothed delay is only updated when queued requests are taken by workers,
+     * so an empty queue always means that executor is able to accept requests again.
+     * @return true if smoothed queue delay exceeds threshold
+     */
+    public boolean isOverloaded()
+    {
+        return averageDelay > delayThreshold && !executor.getQueue().isEmpty();
+    }
+
+    /**
+     * Computes the value for Retry-After header of 503 response. The value grows with queue delay
+     * and is randomized so that rejected clients do not come back simultaneously.
+     * @return Retry-After value in seconds
+     */
+    public int getRetryAfter()
+    {
+        int base = (int) Math.min(retryAfterMax, Math.max(1, Math.ceil(2 * Math.max(averageDelay, delayThreshold) / 1000)));
+        return Math.min(retryAfterMax, base + random.nextInt(base + 1));
+    }
+
+    /**
+     * @return Number of queued requests
+     */
+    public int getQueueSize()
+    {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return Smoothed queue delay in milliseconds
+     */
+    public int getAverageDelay()
+    {
+        return (int) averageDelay;
+    }
+
+    /**
+     * Stops worker threads.
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+    /**
+     * Request processing task.
+     */
+    public interface Task extends Runnable
+    {
+        /**
+         * Called instead of run() when task has spent too much time in queue.
+         */
+        public void reject();
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.registrar;
+
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import openjsip.SipUtils;
+
+/**
+ * Short-lived cache of responses to REGISTER requests, used to answer retransmissions
+ * without processing them again. There is no transaction layer between Proxy and Registrar,
+ * so this cache plays the role of non-INVITE server transaction ( RFC 3261 17.2.2 ):
+ * entry is kept for Timer J ( 64*T1 ) after the final response was given.
+ */
+public class ResponseCache
+{
+    /**
+     * Timer T1 in milliseconds
+     */
+    private static final long T1 = 500;
+
+    /**
+     * Cached entries. Key is built by getKey().
+     */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Lifetime of entry in milliseconds
+     */
+    private final long ttl = 64 * T1;
+
+    /**
+     * Maximum number of cached entries
+     */
+    private final int maxEntries;
+
+    /**
+     * Creates cache.
+     * @param maxEntries Maximum number of cached entries
+     */
+    public ResponseCache(int maxEntries)
+    {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Builds the key that matches request with its retransmissions, as described in RFC 3261 17.2.3:
+     * branch and sent-by of top Via header, method, Call-ID and CSeq.
+     * @param request Request
+     * @return Cache key, or null if request does not carry RFC 3261 compliant branch.
+     */
+    public static String getKey(Request request)
+    {
+        ViaHeader viaHeader = (ViaHeader) request.getHeader(ViaHeader.NAME);
+        CallIdHeader callIdHeader = (CallIdHeader) request.getHeader(CallIdHeader.NAME);
+        CSeqHeader cseqHeader = (CSeqHeader) request.getHeader(CSeqHeader.NAME);
+
+        if (viaHeader == null || callIdHeader == null || cseqHeader == null)
+            return null;
+
+        String branch = viaHeader.getBranch();
+        if (branch == null || !branch.startsWith(SipUtils.BRANCH_MAGIC_COOKIE))
+            return null;
+
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(branch).append(' ').append(viaHeader.getHost()).append(':').append(viaHeader.getPort()).append(' ');
+        sb.append(request.getMethod()).append(' ').append(cseqHeader.getSeqNumber()).append(' ').append(callIdHeader.getCallId());
+
+        return sb.toString();
+    }
+
+    /**
+     * Starts processing of request. If request is a retransmission, the entry of original request is returned.
+     * Otherwise new pending entry is stored and null is returned, and caller must call complete() when done.
+     * @param key Key built by getKey()
+     * @return Entry of original request, or null if request is new.
+     */
+    public Entry begin(String key)
+    {
+        long now = System.currentTimeMillis();
+
+        Entry existing = entries.get(key);
+        if (existing != null)
+        {
+            if (existing.expiresAt > now)
+                return existing;
+
+            entries.remove(key, existing);
+        }
+
+        if (entries.size() >= maxEntries)
+        {
+            purge(now);
+
+            // Too many requests at once, let them be processed as usual
+            if (entries.size() >= maxEntries)
+                return null;
+        }
+
+        existing = entries.putIfAbsent(key, new Entry(now + ttl));
+
+        return existing;
+    }
+
+    /**
+     * Stores the final response to request.
+     * @param key Key built by getKey()
+     * @param response Response, or null if request processing has failed.
+     */
+    public void complete(String key, Response response)
+    {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return;
+
+        if (response == null)
+        {
+            entries.remove(key, entry);
+        }
+        else
+        {
+            entry.expiresAt = System.currentTimeMillis() + ttl;
+            entry.response = response;
+        }
+    }
+
+    /**
+     * @return The number of cached entries
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Removes expired entries.
+     * @param now Current time
+     */
+    private void purge(long now)
+    {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().expiresAt <= now)
+                it.remove();
+        }
+    }
+
+    /**
+     * Response to request and its retransmissions.
+     */
+    public static class Entry
+    {
+        private volatile Response response;
+        private volatile long expiresAt;
+
+        private Entry(long expiresAt)
+        {
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return Final response, or null if original request is still being processed.
+         */
+        public Response getResponse()
+        {
+            return response;
+        }
+    }
+}
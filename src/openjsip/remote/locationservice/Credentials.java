@@ -0,0 +1,84 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.remote.locationservice;
+
+import java.io.Serializable;
+
+/**
+ * Digest credentials of subscriber within a realm.
+ * Credentials carry precomputed HA1 value ( H(username:realm:password) ), so
+ * the password itself is never transfered.
+ */
+public class Credentials implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Username of subscriber
+     */
+    private final String username;
+
+    /**
+     * Realm this HA1 value was computed for
+     */
+    private final String realm;
+
+    /**
+     * HA1 value as lowercase hex string
+     */
+    private final String ha1;
+
+    /**
+     * Credentials constructor
+     * @param username Username of subscriber
+     * @param realm Realm HA1 was computed for
+     * @param ha1 HA1 value, or null if subscriber has no credentials usable within <i>realm</i>
+     */
+    public Credentials(String username, String realm, String ha1)
+    {
+        this.username = username;
+        this.realm = realm;
+        this.ha1 = ha1;
+    }
+
+    /**
+     * @return Username of subscriber
+     */
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * @return Realm HA1 was computed for
+     */
+    public String getRealm()
+    {
+        return realm;
+    }
+
+    /**
+     * @return HA1 value, or null if subscriber has no credentials usable within this realm
+     */
+    public String getHA1()
+    {
+        return ha1;
+    }
+}
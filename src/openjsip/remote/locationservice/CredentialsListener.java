@@ -0,0 +1,37 @@
+/**
+ * This file is part of OpenJSIP, a free SIP service components.
+ *
+ * OpenJSIP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version
+ *
+ * OpenJSIP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ * Copyright (c) 2009 - Yevgen Krapiva
+ */
+package openjsip.remote.locationservice;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Remote callback interface. Location Service notifies its listeners
+ * when credentials of subscriber are changed, so they can drop cached copies.
+ */
+public interface CredentialsListener extends Remote
+{
+    /**
+     * Is called by Location Service when credentials of subscriber has changed.
+     * @param key Key to location service directory, or null if credentials of all subscribers may have changed
+     * @throws RemoteException
+     */
+    public void credentialsChanged(String key) throws RemoteException;
+}